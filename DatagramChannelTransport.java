@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Transport over a UDP socket. The channel is non-blocking and a selector
+ * is used to wait, so receive can honour a time out and a batch receive can
+ * drain every queued datagram per wake up. Direct buffers avoid the copy the
+ * channel otherwise makes on every send and receive.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class DatagramChannelTransport implements Transport {
+
+	private final DatagramChannel _channel;       // the bound UDP channel
+	private final Selector        _readSelector;  // wakes up receive
+	private final Selector        _writeSelector; // wakes up send when the socket buffer is full
+
+	/**
+	 * Creates a datagram channel and binds it to a port.
+	 *
+	 * @param port - the port number to bind, or 0 for any free port
+	 */
+	public DatagramChannelTransport(int port) throws IOException {
+		_channel = DatagramChannel.open();
+		try {
+			_channel.bind(new InetSocketAddress(port));
+			_channel.configureBlocking(false);
+			_readSelector = Selector.open();
+			_writeSelector = Selector.open();
+			_channel.register(_readSelector, SelectionKey.OP_READ);
+			_channel.register(_writeSelector, SelectionKey.OP_WRITE);
+		} catch (IOException ex) {
+			_channel.close();
+			throw ex;
+		}
+	}
+
+	@Override
+	public void send(ByteBuffer src, SocketAddress target) throws IOException {
+		// A non-blocking channel sends nothing when the socket buffer is full
+		while (_channel.send(src, target) == 0) {
+			try {
+				_writeSelector.select(10);
+				_writeSelector.selectedKeys().clear();
+			} catch (ClosedSelectorException ex) {
+				throw new IOException("transport closed");
+			}
+		}
+	}
+
+	@Override
+	public SocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		SocketAddress from = _channel.receive(dst);
+		while (from == null) {
+			long wait = 0;
+			if (timeoutMillis > 0) {
+				wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return null;
+				}
+			}
+			try {
+				_readSelector.select(wait);
+				_readSelector.selectedKeys().clear();  // throws too once close woke the select
+			} catch (ClosedSelectorException ex) {
+				throw new IOException("transport closed");
+			}
+			from = _channel.receive(dst);
+		}
+		return from;
+	}
+
+	@Override
+	public int receiveBatch(ByteBuffer[] dsts, SocketAddress[] froms, long timeoutMillis) throws IOException {
+		SocketAddress from = receive(dsts[0], timeoutMillis);
+		if (from == null) {
+			return 0;
+		}
+		froms[0] = from;
+		int count = 1;
+		// drain what is already queued in the socket without another select
+		while (count < dsts.length && (from = _channel.receive(dsts[count])) != null) {
+			froms[count++] = from;
+		}
+		return count;
+	}
+
+	@Override
+	public SocketAddress localAddress() {
+		try {
+			return _channel.getLocalAddress();
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			_readSelector.close();
+			_writeSelector.close();
+			_channel.close();
+		} catch (IOException ex) {
+			System.err.println("unable to close channel");
+		}
+	}
+}
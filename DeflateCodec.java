@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Payload codec using raw deflate at the fastest level. One Deflater and one
+ * Inflater are reset and reused for every segment, so no native zlib stream
+ * is created per segment.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class DeflateCodec implements PayloadCodec {
+
+	private final Deflater _deflater = new Deflater(Deflater.BEST_SPEED, true); // no zlib header or trailer
+	private final Inflater _inflater = new Inflater(true);
+
+	@Override
+	public int compress(ByteBuffer src, ByteBuffer dst) {
+		int start = dst.position();
+		_deflater.reset();
+		_deflater.setInput(src);
+		_deflater.finish();
+		while (!_deflater.finished()) {
+			if (!dst.hasRemaining()) {
+				dst.position(start);
+				return -1;  // larger than allowed, not worth sending compressed
+			}
+			_deflater.deflate(dst);
+		}
+		return dst.position() - start;
+	}
+
+	@Override
+	public int decompress(ByteBuffer src, ByteBuffer dst) {
+		int start = dst.position();
+		_inflater.reset();
+		_inflater.setInput(src);
+		try {
+			while (!_inflater.finished()) {
+				if (!dst.hasRemaining() || _inflater.inflate(dst) == 0 && _inflater.needsInput()) {
+					dst.position(start);
+					return -1;
+				}
+			}
+		} catch (DataFormatException ex) {
+			dst.position(start);
+			return -1;
+		}
+		return dst.position() - start;
+	}
+
+	/*
+	 * Free the native zlib streams now instead of when the codec is collected.
+	 */
+	@Override
+	public void close() {
+		_deflater.end();
+		_inflater.end();
+	}
+}
@@ -0,0 +1,244 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Queues of the emulated link in UDPNetwork, one per flow, served by deficit
+ * round robin: every time a flow's turn comes it earns its weight times the
+ * quantum in bytes and sends head packets while they fit in what it has
+ * earned. A flow that sends less keeps its turn short, so a flow with few
+ * packets, such as a stream of acknowledgements, never waits behind more
+ * than one quantum of every other flow.
+ *
+ * Without fair queueing every packet goes into one FIFO queue, which is what
+ * a plain router does; the flows are still counted the same way, so both can
+ * be compared. A packet that does not fit in its queue is dropped.
+ *
+ * A flow is one direction of one connection: the connection id with the
+ * acknowledgements and other replies counted apart from the data. A flow is
+ * only kept while it has packets queued, so connections that come and go
+ * leave nothing behind. Its counters outlive it for the statistics, for the
+ * MAX_COUNTED flows seen last; older ones are added up as other flows.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class FairQueue {
+
+	private static final int MAX_COUNTED = 1024; // flows whose counters are listed one by one
+
+	private final int     _quantum;     // bytes a flow of weight 1 earns per turn
+	private final int     _queueBytes;  // bytes each queue holds
+	private final boolean _fair;        // deficit round robin, or one FIFO queue
+	private final Map<Long, Flow> _flows = new HashMap<>(); // flows with queued packets
+	private final ArrayDeque<Flow> _active = new ArrayDeque<>(); // the same, in turn order
+	private final Flow _fifo;            // the one queue without fair queueing
+	private int _queued;                 // packets in every queue
+	private final long _startedAt = System.nanoTime();
+	private final Counters _others = new Counters("others", 0); // flows no longer in _counters
+	private long _otherFlows;
+
+	// Counters of the flows seen last, least recently used first
+	private final Map<Long, Counters> _counters = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Counters> eldest) {
+			if (size() <= MAX_COUNTED) {
+				return false;
+			}
+			_others.add(eldest.getValue());
+			eldest.getValue().retired = true;
+			_otherFlows++;
+			return true;
+		}
+	};
+
+	/**
+	 * A packet waiting for the link.
+	 */
+	public static final class Packet {
+		final ByteBuffer        data;
+		final InetSocketAddress dest;
+		final Counters          counters;  // of its flow, which may be gone once it is sent
+		final long              queuedAt;
+
+		Packet(ByteBuffer data, InetSocketAddress dest, Counters counters, long queuedAt) {
+			this.data = data;
+			this.dest = dest;
+			this.counters = counters;
+			this.queuedAt = queuedAt;
+		}
+	}
+
+	// One queue with its share, while it has packets
+	private static final class Flow {
+		final long                key;
+		final int                 weight;
+		final ArrayDeque<Packet>  queue = new ArrayDeque<>();
+		int                       bytes;     // bytes in queue
+		int                       deficit;   // bytes it may still send this turn
+		boolean                   earned;    // the quantum of the current turn was added
+
+		Flow(long key, int weight) {
+			this.key = key;
+			this.weight = weight;
+		}
+	}
+
+	// What a flow has sent and lost
+	private static final class Counters {
+		final String name;
+		final int    weight;
+		long         packetsSent;
+		long         bytesSent;
+		long         drops;
+		long         waitNanos; // queueing delay of the packets sent
+		long         maxWaitNanos;
+		boolean      retired;   // added to the others; packets still queued count there
+
+		Counters(String name, int weight) {
+			this.name = name;
+			this.weight = weight;
+		}
+
+		void add(Counters other) {
+			packetsSent += other.packetsSent;
+			bytesSent += other.bytesSent;
+			drops += other.drops;
+			waitNanos += other.waitNanos;
+			maxWaitNanos = Math.max(maxWaitNanos, other.maxWaitNanos);
+		}
+	}
+
+	/**
+	 * @param quantum - bytes a flow of weight 1 may send per turn, at least one datagram
+	 * @param queueBytes - bytes each flow's queue holds, or the FIFO queue without fair queueing
+	 * @param fair - true for deficit round robin, false for one FIFO queue
+	 */
+	public FairQueue(int quantum, int queueBytes, boolean fair) {
+		_quantum = quantum;
+		_queueBytes = queueBytes;
+		_fair = fair;
+		_fifo = new Flow(-1, 1);
+	}
+
+	/**
+	 * Queues a packet for the link.
+	 *
+	 * @param flowKey - the flow of the packet
+	 * @param name - a name for the flow in the statistics, used when it is new
+	 * @param weight - the share of the flow, used when it is new
+	 * @param data - the packet; kept until it is sent
+	 * @param dest - where it goes
+	 * @param now - the current System.nanoTime
+	 *
+	 * @return - false if the queue was full and the packet was dropped
+	 */
+	public synchronized boolean offer(long flowKey, String name, int weight, ByteBuffer data, InetSocketAddress dest,
+									  long now) {
+		Counters counters = _counters.computeIfAbsent(flowKey, key -> new Counters(name, Math.max(1, weight)));
+		Flow queue = _fair ? _flows.get(flowKey) : _fifo;
+		int size = data.remaining();
+		if ((queue == null ? 0 : queue.bytes) + size > _queueBytes) {
+			counters.drops++;
+			return false;
+		}
+		if (queue == null) {
+			queue = new Flow(flowKey, Math.max(1, weight));
+			_flows.put(flowKey, queue);
+		}
+		if (queue.queue.isEmpty()) {
+			_active.addLast(queue);
+		}
+		queue.queue.addLast(new Packet(data, dest, counters, now));
+		queue.bytes += size;
+		_queued++;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Takes the next packet for the link, waiting for one.
+	 *
+	 * @param timeoutMillis - how long to wait
+	 *
+	 * @return - the packet, or null if none came in time
+	 */
+	public synchronized Packet take(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long wait;
+		while (_queued == 0) {
+			if ((wait = deadline - System.currentTimeMillis()) <= 0) {
+				return null;
+			}
+			wait(wait);
+		}
+		while (true) {
+			Flow queue = _active.peekFirst();
+			if (!queue.earned) {
+				queue.deficit += queue.weight * _quantum;
+				queue.earned = true;
+			}
+			Packet packet = queue.queue.peekFirst();
+			int size = packet.data.remaining();
+			if (size > queue.deficit && _fair) {
+				queue.earned = false;  // its turn is over, the rest is kept for the next one
+				_active.addLast(_active.pollFirst());
+				continue;
+			}
+			queue.queue.pollFirst();
+			queue.bytes -= size;
+			queue.deficit -= size;
+			_queued--;
+			if (queue.queue.isEmpty()) {
+				queue.deficit = 0;  // an idle flow saves nothing up
+				queue.earned = false;
+				_active.pollFirst();
+				if (_fair) {
+					_flows.remove(queue.key);  // made again by its next packet
+				}
+			}
+			return packet;
+		}
+	}
+
+	/**
+	 * Counts a packet the link has sent.
+	 *
+	 * @param packet - the packet
+	 * @param now - the current System.nanoTime
+	 */
+	public synchronized void sent(Packet packet, long now) {
+		Counters counters = packet.counters.retired ? _others : packet.counters;
+		long waited = now - packet.queuedAt;
+		counters.packetsSent++;
+		counters.bytesSent += packet.data.limit();
+		counters.waitNanos += waited;
+		counters.maxWaitNanos = Math.max(counters.maxWaitNanos, waited);
+	}
+
+	/*
+	 * Get the throughput and queueing delay of every flow, one per line.
+	 */
+	public synchronized String getStats() {
+		double seconds = (System.nanoTime() - _startedAt) / 1e9;
+		StringBuilder stats = new StringBuilder();
+		for (Counters flow : _counters.values()) {
+			append(stats, "flow " + flow.name + " weight " + flow.weight, flow, seconds);
+		}
+		if (_otherFlows > 0) {
+			append(stats, _otherFlows + " other flows", _others, seconds);
+		}
+		return stats.toString();
+	}
+
+	private static void append(StringBuilder stats, String name, Counters flow, double seconds) {
+		stats.append(String.format("%s: %d packets, %.1f KB/s, drops %d, wait avg %.2f ms max %.2f ms%n",
+				name, flow.packetsSent, flow.bytesSent / 1024.0 / seconds, flow.drops,
+				flow.packetsSent == 0 ? 0.0 : flow.waitNanos / 1e6 / flow.packetsSent,
+				flow.maxWaitNanos / 1e6));
+	}
+}
@@ -0,0 +1,244 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Rebuilds lost data segments of a connection from the parity segments of
+ * their group. The blocks of recently received segments are kept, indexed by
+ * sequence number, because a group can only be decoded with all of its
+ * surviving members, including the ones already delivered.
+ *
+ * A group is decoded as soon as it has at least as many parity blocks as
+ * missing data segments, whether the last piece to arrive is a parity segment
+ * or a data segment.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class FecDecoder {
+
+	private static final int GROUPS = 64; // groups whose parity is kept at once
+
+	private final byte[][] _blocks;    // blocks of received segments indexed by seq % window
+	private final int[]    _blockSeq;  // the sequence number each block belongs to
+	private final boolean[] _stored;
+	private final Group[]  _groups = new Group[GROUPS];
+	private int _nextGroup;            // group slot replaced next
+	private long _recovered;           // segments rebuilt
+	private long _parityReceived;
+
+	/**
+	 * Receives segments rebuilt from parity.
+	 */
+	public interface Sink {
+		/**
+		 * @param seq - the sequence number of the rebuilt segment
+		 * @param flags - its FIN, COMPRESSED and START flags
+		 * @param stream - its stream
+		 * @param streamSeq - its sequence number within the stream
+		 * @param payload - its payload as it was sent
+		 */
+		void recovered(int seq, byte flags, int stream, int streamSeq, ByteBuffer payload);
+	}
+
+	// The parity blocks received for one group
+	private static final class Group {
+		int       base;
+		int       count;    // data segments in the group
+		byte[][]  rows = new byte[ReedSolomon.MAX_PARITY][];
+		boolean[] have = new boolean[ReedSolomon.MAX_PARITY];
+		int       rowLength;
+		boolean   done;
+	}
+
+	/**
+	 * Constructs a decoder.
+	 *
+	 * @param window - how many recent segments are kept, at least the receive window
+	 */
+	public FecDecoder(int window) {
+		_blocks = new byte[window][];
+		_blockSeq = new int[window];
+		_stored = new boolean[window];
+	}
+
+	/**
+	 * Keeps the block of a received data segment protected by parity.
+	 *
+	 * @param seq - the sequence number of the segment
+	 * @param flags - the segment's flags
+	 * @param stream - its stream
+	 * @param streamSeq - its sequence number within the stream
+	 * @param payload - its payload as sent, from position to limit; not consumed
+	 */
+	public void store(int seq, byte flags, int stream, int streamSeq, ByteBuffer payload) {
+		int index = Math.floorMod(seq, _blocks.length);
+		int length = payload.remaining();
+		byte[] block = _blocks[index];
+		if (block == null || block.length < FecEncoder.BLOCK_HEADER + length) {
+			block = new byte[FecEncoder.BLOCK_HEADER + length];
+			_blocks[index] = block;
+		}
+		block[0] = (byte) (flags & FecEncoder.PROTECTED_FLAGS);
+		block[1] = (byte) (length >> 8);
+		block[2] = (byte) length;
+		FecEncoder.putStream(block, stream, streamSeq);
+		payload.get(payload.position(), block, FecEncoder.BLOCK_HEADER, length);
+		_blockSeq[index] = seq;
+		_stored[index] = true;
+	}
+
+	/**
+	 * Tries the groups that contain a newly received data segment.
+	 *
+	 * @param seq - the sequence number of the segment
+	 * @param rcvNxt - the next sequence number the receiver expects
+	 * @param sink - receives rebuilt segments
+	 */
+	public void onData(int seq, int rcvNxt, Sink sink) {
+		for (Group group : _groups) {
+			if (group != null && !group.done && seq - group.base >= 0 && seq - group.base < group.count) {
+				decode(group, rcvNxt, sink);
+			}
+		}
+	}
+
+	/**
+	 * Keeps a parity segment and decodes its group if enough is known.
+	 *
+	 * @param buf - the parity segment, from 0 to limit
+	 * @param rcvNxt - the next sequence number the receiver expects
+	 * @param sink - receives rebuilt segments
+	 */
+	public void onParity(ByteBuffer buf, int rcvNxt, Sink sink) {
+		_parityReceived++;
+		int base = UDPSegment.sequence(buf);
+		int count = UDPSegment.groupSize(buf);
+		int index = UDPSegment.parityIndex(buf);
+		if (base + count - rcvNxt <= 0 || count > ReedSolomon.MAX_DATA || index >= ReedSolomon.MAX_PARITY) {
+			return;  // every segment of the group has been delivered already
+		}
+		Group group = find(base, count);
+		if (group.done || group.have[index]) {
+			return;
+		}
+		ByteBuffer payload = UDPSegment.payload(buf);
+		byte[] row = group.rows[index];
+		if (row == null || row.length < payload.remaining()) {
+			row = new byte[payload.remaining()];
+			group.rows[index] = row;
+		}
+		group.rowLength = Math.max(group.rowLength, payload.remaining());
+		payload.get(row, 0, payload.remaining());
+		group.have[index] = true;
+		decode(group, rcvNxt, sink);
+	}
+
+	// The group starting at base, taking over the oldest slot for a new one
+	private Group find(int base, int count) {
+		for (Group group : _groups) {
+			if (group != null && group.base == base && group.count == count) {
+				return group;
+			}
+		}
+		Group group = _groups[_nextGroup];
+		if (group == null) {
+			group = new Group();
+			_groups[_nextGroup] = group;
+		}
+		_nextGroup = (_nextGroup + 1) % GROUPS;
+		group.base = base;
+		group.count = count;
+		group.rowLength = 0;
+		group.done = false;
+		Arrays.fill(group.have, false);
+		return group;
+	}
+
+	private boolean has(int seq) {
+		int index = Math.floorMod(seq, _blocks.length);
+		return _stored[index] && _blockSeq[index] == seq;
+	}
+
+	// Rebuild the missing segments of a group if it has enough parity
+	private void decode(Group group, int rcvNxt, Sink sink) {
+		int[] missing = new int[group.count];
+		int lost = 0;
+		for (int j = 0; j < group.count; j++) {
+			int seq = group.base + j;
+			if (!has(seq)) {
+				if (seq - rcvNxt < 0) {
+					group.done = true;  // delivered long ago and forgotten: nothing left to rebuild
+					return;
+				}
+				missing[lost++] = j;
+			}
+		}
+		if (lost == 0) {
+			group.done = true;
+			return;
+		}
+		int[] rows = new int[lost];
+		int found = 0;
+		for (int i = 0; i < ReedSolomon.MAX_PARITY && found < lost; i++) {
+			if (group.have[i]) {
+				rows[found++] = i;
+			}
+		}
+		if (found < lost) {
+			return;  // wait for more parity or data
+		}
+
+		// Remove the known blocks from the parity, leaving a lost x lost system
+		int length = group.rowLength;
+		byte[][] rhs = new byte[lost][length];
+		for (int r = 0; r < lost; r++) {
+			byte[] row = group.rows[rows[r]];
+			System.arraycopy(row, 0, rhs[r], 0, Math.min(row.length, length));
+		}
+		for (int j = 0; j < group.count; j++) {
+			int index = Math.floorMod(group.base + j, _blocks.length);
+			if (!has(group.base + j)) {
+				continue;
+			}
+			byte[] block = _blocks[index];
+			int blockLength = Math.min(length, FecEncoder.BLOCK_HEADER + ((block[1] & 0xFF) << 8 | block[2] & 0xFF));
+			for (int r = 0; r < lost; r++) {
+				ReedSolomon.mulAdd(rhs[r], 0, block, 0, blockLength, ReedSolomon.coefficient(rows[r], j));
+			}
+		}
+		int[][] matrix = new int[lost][lost];
+		for (int r = 0; r < lost; r++) {
+			for (int c = 0; c < lost; c++) {
+				matrix[r][c] = ReedSolomon.coefficient(rows[r], missing[c]);
+			}
+		}
+		int[][] inverse = ReedSolomon.invert(matrix);
+		if (inverse == null) {
+			return;
+		}
+		group.done = true;
+		for (int c = 0; c < lost; c++) {
+			byte[] block = new byte[length];
+			for (int r = 0; r < lost; r++) {
+				ReedSolomon.mulAdd(block, 0, rhs[r], 0, length, inverse[c][r]);
+			}
+			int payloadLength = (block[1] & 0xFF) << 8 | block[2] & 0xFF;
+			if (FecEncoder.BLOCK_HEADER + payloadLength > length) {
+				continue;  // inconsistent parity
+			}
+			_recovered++;
+			int stream = (block[3] & 0xFF) << 8 | block[4] & 0xFF;
+			int streamSeq = ByteBuffer.wrap(block).getInt(5);
+			sink.recovered(group.base + missing[c], block[0], stream, streamSeq,
+					ByteBuffer.wrap(block, FecEncoder.BLOCK_HEADER, payloadLength));
+		}
+	}
+
+	/*
+	 * Display decoder statistics
+	 */
+	public String getStats() {
+		return "parity received: " + _parityReceived + ", recovered: " + _recovered;
+	}
+}
@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds the parity blocks of one group of consecutive data segments while
+ * the segments are being sent. Each data segment is protected as a block of
+ * its flags, its payload length, its stream, its stream sequence number and
+ * its payload as sent, so a rebuilt segment gets back everything the receiver
+ * needs to deliver it. Shorter blocks count as padded with zeros.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class FecEncoder {
+
+	public static final int BLOCK_HEADER = 9; // flags, payload length, stream and stream seq in front of each block
+	static final int PROTECTED_FLAGS = UDPSegment.FLAG_FIN | UDPSegment.FLAG_COMPRESSED | UDPSegment.FLAG_START;
+
+	private final byte[][] _rows;    // parity blocks being accumulated
+	private final byte[]   _block;   // the block of the segment being added
+	private int _parity;             // parity blocks per group
+	private int _base;               // sequence number of the first segment of the group
+	private int _count;              // data segments added to the group
+	private int _rowLength;          // length of the longest block so far
+
+	/**
+	 * Constructs an encoder.
+	 *
+	 * @param maxPayload - the largest payload of a data segment
+	 */
+	public FecEncoder(int maxPayload) {
+		_rows = new byte[ReedSolomon.MAX_PARITY][BLOCK_HEADER + maxPayload];
+		_block = new byte[BLOCK_HEADER + maxPayload];
+	}
+
+	/**
+	 * Adds a data segment to the current group.
+	 *
+	 * @param seq - its sequence number, one more than the previous segment's
+	 * @param flags - its flags; only PROTECTED_FLAGS are protected
+	 * @param datagram - the segment, payload from UDPSegment.HEADER_SIZE up to position
+	 * @param parity - parity blocks to produce for a group starting with this segment
+	 */
+	public void add(int seq, byte flags, ByteBuffer datagram, int parity) {
+		if (_count == 0) {
+			_base = seq;
+			_parity = parity;
+		}
+		int length = datagram.position() - UDPSegment.HEADER_SIZE;
+		_block[0] = (byte) (flags & PROTECTED_FLAGS);
+		_block[1] = (byte) (length >> 8);
+		_block[2] = (byte) length;
+		putStream(_block, UDPSegment.stream(datagram), UDPSegment.streamSequence(datagram));
+		datagram.get(UDPSegment.HEADER_SIZE, _block, BLOCK_HEADER, length);
+		for (int i = 0; i < _parity; i++) {
+			ReedSolomon.mulAdd(_rows[i], 0, _block, 0, BLOCK_HEADER + length, ReedSolomon.coefficient(i, _count));
+		}
+		_rowLength = Math.max(_rowLength, BLOCK_HEADER + length);
+		_count++;
+	}
+
+	// Write the stream and stream sequence number of a block after its length
+	static void putStream(byte[] block, int stream, int streamSeq) {
+		block[3] = (byte) (stream >> 8);
+		block[4] = (byte) stream;
+		block[5] = (byte) (streamSeq >> 24);
+		block[6] = (byte) (streamSeq >> 16);
+		block[7] = (byte) (streamSeq >> 8);
+		block[8] = (byte) streamSeq;
+	}
+
+	public int count() {
+		return _count;
+	}
+
+	public int base() {
+		return _base;
+	}
+
+	public int parity() {
+		return _parity;
+	}
+
+	/*
+	 * Put parity block i of the group after the header of a parity segment.
+	 */
+	public void writeParity(int index, ByteBuffer datagram) {
+		datagram.put(_rows[index], 0, _rowLength);
+	}
+
+	/*
+	 * Start a new group.
+	 */
+	public void reset() {
+		for (int i = 0; i < _parity; i++) {
+			Arrays.fill(_rows[i], 0, _rowLength, (byte) 0);
+		}
+		_count = 0;
+		_rowLength = 0;
+	}
+}
@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Parameters of a windowed connection, agreed on before its first data
+ * segment. The sender offers what it would like in a SYN segment; the
+ * receiver answers with a SYN_ACK holding what it accepted, never more than
+ * was offered, and the connection id it assigned. Both ends then start with
+ * the agreed settings. A sender that gets no answer falls back to the
+ * defaults, which every receiver takes without a handshake.
+ *
+ * Payload layout (big endian), the same in both directions:
+ *   0  version     1 byte
+ *   1  mss         2 bytes  payload bytes per data segment
+ *   3  window      2 bytes  segments in flight
+ *   5  checksums   1 byte   checksum algorithms offered, or the one chosen,
+ *                            as a bit per UDPSegment.CHECKSUM_ value
+ *   6  codecs      1 byte   payload codecs offered or accepted
+ *   7  ack every   1 byte   in-order segments per acknowledgement
+ *   8  ack delay   4 bytes  microseconds an acknowledgement may be held
+ *   12 connection  4 bytes  id assigned by the receiver, 0 in a SYN
+ *   16 buffer      4 bytes  receive buffer of the receiver, 0 in a SYN
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public final class Handshake {
+
+	public static final byte VERSION = 1;
+	public static final int  SIZE = 20;
+	public static final int  CODEC_DEFLATE = 0x01;
+	public static final int  MIN_MSS = 64;  // smallest payload an answer may choose
+
+	final int mss;
+	final int window;
+	final int checksums;
+	final int codecs;
+	final int ackEvery;
+	final int ackDelayMicros;
+	final int connId;
+	final int buffer;
+
+	/**
+	 * @param mss - payload bytes per data segment
+	 * @param window - segments in flight
+	 * @param checksums - a bit per acceptable UDPSegment.CHECKSUM_ algorithm
+	 * @param codecs - a bit per acceptable payload codec, e.g. CODEC_DEFLATE
+	 * @param ackEvery - in-order segments per acknowledgement
+	 * @param ackDelayMicros - how long an acknowledgement may be held
+	 * @param connId - the assigned connection id, 0 in an offer
+	 * @param buffer - the receive buffer in bytes, 0 in an offer
+	 */
+	public Handshake(int mss, int window, int checksums, int codecs, int ackEvery, int ackDelayMicros, int connId,
+					 int buffer) {
+		this.mss = mss;
+		this.window = window;
+		this.checksums = checksums;
+		this.codecs = codecs;
+		this.ackEvery = ackEvery;
+		this.ackDelayMicros = ackDelayMicros;
+		this.connId = connId;
+		this.buffer = buffer;
+	}
+
+	/*
+	 * Write the payload at the position of a segment being built.
+	 */
+	public void write(ByteBuffer buf) {
+		buf.put(VERSION);
+		buf.putShort((short) mss);
+		buf.putShort((short) window);
+		buf.put((byte) checksums);
+		buf.put((byte) codecs);
+		buf.put((byte) ackEvery);
+		buf.putInt(ackDelayMicros);
+		buf.putInt(connId);
+		buf.putInt(buffer);
+	}
+
+	/**
+	 * Reads the payload of a SYN or SYN_ACK.
+	 *
+	 * @param payload - the payload, from position to limit
+	 *
+	 * @return - the parameters, or null if the payload is short or of another version
+	 */
+	public static Handshake read(ByteBuffer payload) {
+		if (payload.remaining() < SIZE || payload.get() != VERSION) {
+			return null;
+		}
+		return new Handshake(payload.getShort() & 0xFFFF, payload.getShort() & 0xFFFF, payload.get() & 0xFF,
+				payload.get() & 0xFF, payload.get() & 0xFF, payload.getInt(), payload.getInt(), payload.getInt());
+	}
+
+	/**
+	 * Answers an offer with what the receiver can take: the smaller of each
+	 * limit, the first algorithm both sides accept (CRC32C when there is
+	 * none), and only the codecs both sides know.
+	 *
+	 * @param maxMss - the largest payload the receiver takes
+	 * @param maxWindow - the segments the receiver can buffer out of order
+	 * @param checksums - a bit per checksum algorithm the receiver accepts
+	 * @param codecs - a bit per payload codec the receiver can restore
+	 * @param maxAckEvery - the most segments the receiver acknowledges together
+	 * @param maxAckDelayMicros - the longest the receiver holds an acknowledgement
+	 * @param connId - the connection id assigned to the sender
+	 * @param buffer - the receive buffer in bytes
+	 *
+	 * @return - the accepted parameters
+	 */
+	public Handshake accept(int maxMss, int maxWindow, int checksums, int codecs, int maxAckEvery,
+							int maxAckDelayMicros, int connId, int buffer) {
+		int common = this.checksums & checksums;
+		int checksum = common == 0 ? UDPSegment.CHECKSUM_CRC32C : Integer.numberOfTrailingZeros(common);
+		return new Handshake(Math.max(MIN_MSS, Math.min(mss, maxMss)), Math.max(1, Math.min(window, maxWindow)),
+				1 << checksum, this.codecs & codecs, Math.max(1, Math.min(ackEvery, maxAckEvery)),
+				Math.max(0, Math.min(ackDelayMicros, maxAckDelayMicros)), connId, buffer);
+	}
+
+	/*
+	 * The checksum algorithm an answer chose.
+	 */
+	public int checksum() {
+		return checksums == 0 ? UDPSegment.CHECKSUM_CRC32C : Integer.numberOfTrailingZeros(checksums);
+	}
+
+	@Override
+	public String toString() {
+		return "mss " + mss + ", window " + window + ", checksum "
+				+ (checksum() == UDPSegment.CHECKSUM_NONE ? "none" : "crc32c")
+				+ ((codecs & CODEC_DEFLATE) != 0 ? ", deflate" : "") + ", ack every " + ackEvery + " or "
+				+ ackDelayMicros + " us";
+	}
+}
@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+/**
+ * Counts latencies in buckets that grow with the value, so any latency from
+ * a nanosecond to days is kept within 1/SUB_BUCKETS of its value in a fixed
+ * array of longs: values below 2 * SUB_BUCKETS have a bucket each, and every
+ * doubling above that is split into SUB_BUCKETS equal buckets. Recording is
+ * a shift and an increment.
+ *
+ * recordCorrected makes up for coordinated omission: a client that meant to
+ * start an operation every expected interval but waited for a slow one has
+ * also delayed every operation it did not start in the meantime, and those
+ * are counted as well, each with the latency it would have seen.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;  // buckets per doubling
+	private static final int BUCKETS = (64 - SUB_BITS - 1) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+	private final long[] _counts = new long[BUCKETS];
+	private long _total;
+	private long _sum;
+	private long _max;
+
+	/*
+	 * Count one value, e.g. a latency in nanoseconds; negative values count as 0.
+	 */
+	public synchronized void record(long value) {
+		value = Math.max(0, value);
+		_counts[index(value)]++;
+		_total++;
+		_sum += value;
+		_max = Math.max(_max, value);
+	}
+
+	/**
+	 * Counts a value and the values the operations that should have started
+	 * while it lasted would have had.
+	 *
+	 * @param value - the latency of the operation
+	 * @param expectedInterval - the time meant between two operations, 0 for none
+	 */
+	public synchronized void recordCorrected(long value, long expectedInterval) {
+		record(value);
+		if (expectedInterval <= 0) {
+			return;
+		}
+		for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+			record(missed);
+		}
+	}
+
+	/*
+	 * Add the counts of another histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		long[] counts;
+		long total, sum, max;
+		synchronized (other) {
+			counts = other._counts.clone();
+			total = other._total;
+			sum = other._sum;
+			max = other._max;
+		}
+		synchronized (this) {
+			for (int i = 0; i < BUCKETS; i++) {
+				_counts[i] += counts[i];
+			}
+			_total += total;
+			_sum += sum;
+			_max = Math.max(_max, max);
+		}
+	}
+
+	/*
+	 * Move every count into a new histogram and start over, e.g. at the end of a reporting interval.
+	 */
+	public synchronized LatencyHistogram takeAndReset() {
+		LatencyHistogram taken = new LatencyHistogram();
+		System.arraycopy(_counts, 0, taken._counts, 0, BUCKETS);
+		taken._total = _total;
+		taken._sum = _sum;
+		taken._max = _max;
+		Arrays.fill(_counts, 0);
+		_total = 0;
+		_sum = 0;
+		_max = 0;
+		return taken;
+	}
+
+	/**
+	 * Finds the value at a percentile.
+	 *
+	 * @param percentile - from 0 to 100
+	 *
+	 * @return - the highest value of the bucket holding it, never above the largest value counted
+	 */
+	public synchronized long percentile(double percentile) {
+		if (_total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * _total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += _counts[i];
+			if (seen >= rank) {
+				return Math.min(highest(i), _max);
+			}
+		}
+		return _max;
+	}
+
+	public synchronized long getCount() {
+		return _total;
+	}
+
+	public synchronized long getMax() {
+		return _max;
+	}
+
+	public synchronized double getMean() {
+		return _total == 0 ? 0 : (double) _sum / _total;
+	}
+
+	/*
+	 * The usual percentiles of nanosecond latencies, in milliseconds.
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("p50 %.2f p90 %.2f p99 %.2f p99.9 %.2f max %.2f ms", percentile(50) / 1e6,
+				percentile(90) / 1e6, percentile(99) / 1e6, percentile(99.9) / 1e6, _max / 1e6);
+	}
+
+	// Values below 2 * SUB_BUCKETS are their own bucket; above, the top SUB_BITS + 1 bits pick it
+	private static int index(long value) {
+		int shift = Math.max(0, 64 - SUB_BITS - 1 - Long.numberOfLeadingZeros(value));
+		return (shift << SUB_BITS) + (int) (value >>> shift);
+	}
+
+	// The highest value that falls into a bucket
+	private static long highest(int index) {
+		int shift = Math.max(0, (index >> SUB_BITS) - 1);
+		long mantissa = index - ((long) shift << SUB_BITS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
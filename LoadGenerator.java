@@ -0,0 +1,751 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs many independent sender sessions from one process to find where a
+ * receiver or a network saturates. The sessions share a few sockets: one
+ * thread per socket polls the sessions that have work, in the order their
+ * timers expire, and one reads the replies and hands each to its session
+ * by connection id, so thousands of sessions need no thread of their own.
+ * Every session does its own handshake unless it is turned off.
+ *
+ * Open loop: messages arrive at a fixed total rate, dealt round robin over
+ * the connected sessions, whether or not earlier ones are done. The latency
+ * counts from when a message was due, so a generator that falls behind
+ * cannot hide the delay it causes. The generator never blocks on a session:
+ * an arrival that finds the sessions it tries full waits in a backlog and
+ * is queued late, still timed from when it was due; once the backlog is
+ * full, further arrivals are dropped and counted.
+ *
+ * Closed loop: every session keeps a number of messages outstanding and
+ * starts the next one when one completes, or at the interval it means to
+ * keep if it is later. A message that took longer than the interval also
+ * counts the messages the session should have started meanwhile
+ * (LatencyHistogram.recordCorrected).
+ *
+ * The sessions start evenly over the ramp-up time; the open loop rate
+ * grows with them. The run is divided into steps of equal length, the open
+ * loop rate rising by a fixed amount per step, and every step reports its
+ * throughput and latency percentiles, with and without the correction.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class LoadGenerator {
+
+	private static final int  WINDOW = 16;          // segments in flight per session, kept small for thousands of sessions
+	private static final int  QUEUE_CAPACITY = 64;  // messages waiting per session
+	private static final int  MAX_MESSAGE = 1 << 20; // largest message a size distribution may pick
+	private static final int  ARRIVAL_TRIES = 8;    // full sessions an open loop arrival tries before it waits
+	private static final int  MAX_LATE = 1 << 16;  // open loop arrivals waiting for room before more are dropped
+	private static final int  ACK_BATCH = 64;       // replies taken from a socket per wake up
+	private static final int  SYN_ATTEMPTS = 4;     // SYNs sent before a session falls back to the defaults
+	private static final long SYN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(250); // doubled per attempt
+	private static final int  ACK_EVERY = 2;        // acknowledgement timing offered in the handshake
+	private static final int  ACK_DELAY_MICROS = 1000;
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // longest sleep of an I/O thread
+	private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(10);      // wait for outstanding messages at the end
+
+	private final InetSocketAddress _dst;      // the receiver
+	private final InetSocketAddress _network;  // where every datagram is sent
+	private final List<Socket> _sockets = new ArrayList<>();
+	private final Client[] _clients;
+	private final ByteBuffer _payload = ByteBuffer.allocate(MAX_MESSAGE); // every message is a prefix of it
+	private volatile boolean _running;         // the I/O and reader threads run
+	private volatile boolean _issuing;         // closed loop sessions start new messages
+	private int _started;                      // sessions started so far, in order
+	private long _cursor;                      // open loop: the session the next arrival goes to
+
+	private IntSupplier _sizes = () -> 1000;
+	private boolean _handshake = true;
+	private int _window = WINDOW;
+	private double _openRate;                  // messages per second in the first step, 0 for closed loop
+	private double _rateStep;                  // added to the open loop rate every step
+	private int _outstanding = 1;              // closed loop: messages each session keeps in flight
+	private long _intervalNanos;               // closed loop: time meant between the messages of a session
+	private long _rampNanos;
+	private long _stepNanos = TimeUnit.SECONDS.toNanos(10);
+	private int _steps = 1;
+
+	private final LatencyHistogram _corrected = new LatencyHistogram();  // of the current step
+	private final LatencyHistogram _raw = new LatencyHistogram();
+	private final LatencyHistogram _totalCorrected = new LatencyHistogram();
+	private final LatencyHistogram _totalRaw = new LatencyHistogram();
+	private final AtomicLong _sent = new AtomicLong();
+	private final AtomicLong _completed = new AtomicLong();
+	private final AtomicLong _completedBytes = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+	private final AtomicLong _pending = new AtomicLong();   // messages sent and not yet completed
+	private final AtomicLong _connected = new AtomicLong();
+	private final AtomicLong _fallbacks = new AtomicLong(); // sessions whose handshake got no answer
+	private final AtomicLong _dropped = new AtomicLong();   // arrivals rejected by full queues with the backlog full
+	private long _unserved;                                  // open loop arrivals with no connected session
+	private final ArrayDeque<Long> _late = new ArrayDeque<>(); // open loop arrivals due but not yet queued, oldest first
+
+	// Starts the next message of a closed loop session after its interval
+	private final ScheduledExecutorService _timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "load-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// One transport shared by many sessions
+	private final class Socket {
+		final Transport         transport;
+		final InetSocketAddress src;
+		final Map<Integer, Client> clients = new ConcurrentHashMap<>();   // by offered and by assigned connection id
+		final ConcurrentLinkedQueue<Client> ready = new ConcurrentLinkedQueue<>(); // woken sessions
+		final PriorityQueue<Wakeup> timers = new PriorityQueue<>();        // used by the I/O thread only
+		final ByteBuffer        syn = ByteBuffer.allocate(UDPSegment.HEADER_SIZE + Handshake.SIZE);
+		Thread                  io;
+		Thread                  reader;
+
+		Socket(Transport transport, InetSocketAddress src) {
+			this.transport = transport;
+			this.src = src;
+		}
+	}
+
+	// When a session is due to be polled; stale once the session was rescheduled
+	private static final class Wakeup implements Comparable<Wakeup> {
+		final long   due;
+		final Client client;
+
+		Wakeup(long due, Client client) {
+			this.due = due;
+			this.client = client;
+		}
+
+		@Override
+		public int compareTo(Wakeup other) {
+			return Long.compare(due, other.due);
+		}
+	}
+
+	// One simulated sender
+	private static final class Client {
+		final Socket         socket;
+		final int            offered;        // connection id until the receiver assigns one
+		final AtomicBoolean  woken = new AtomicBoolean();
+		final long[]         synSentAt = new long[SYN_ATTEMPTS];
+		volatile int         attempt;        // SYNs sent
+		volatile long        rtt;            // of the answered SYN
+		volatile Handshake   answer;         // set by the reader thread
+		volatile SenderSession session;      // null until connected
+		long                 due;            // when the I/O thread polls it next
+
+		Client(Socket socket, int offered) {
+			this.socket = socket;
+			this.offered = offered;
+		}
+	}
+
+	/**
+	 * Constructs a load generator; the sessions are dealt round robin over the
+	 * transports added before run.
+	 *
+	 * @param sessions - the number of sessions
+	 * @param rcvHost - receiver host name
+	 * @param rcvPort - receiver port number
+	 * @param networkHost - network host name
+	 * @param networkPort - network port number
+	 */
+	public LoadGenerator(int sessions, String rcvHost, int rcvPort, String networkHost, int networkPort)
+			throws UnknownHostException {
+		_dst = UDPSegment.ipv4(rcvHost, rcvPort);
+		_network = Transport.resolve(networkHost, networkPort);
+		_clients = new Client[sessions];
+	}
+
+	/**
+	 * Binds sockets on consecutive ports for the sessions to share.
+	 *
+	 * @param firstPort - the port of the first socket
+	 * @param count - the number of sockets
+	 *
+	 * @return - 0 or a negative number if a socket could not be bound
+	 */
+	public int createSockets(int firstPort, int count) {
+		for (int i = 0; i < count; i++) {
+			try {
+				addTransport(new DatagramChannelTransport(firstPort + i), firstPort + i);
+			} catch (IOException ex) {
+				System.err.println("unable to create and bind socket on port " + (firstPort + i));
+				return -1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds an already bound transport, for example a MemoryTransport, for the sessions to share.
+	 *
+	 * @param transport - the transport
+	 * @param port - the port it is bound to, written in the header as the source
+	 */
+	public void addTransport(Transport transport, int port) throws UnknownHostException {
+		_sockets.add(new Socket(transport, UDPSegment.ipv4("localhost", port)));
+	}
+
+	/*
+	 * Set how message sizes are picked, e.g. from sizes(spec).
+	 */
+	public void setSizes(IntSupplier sizes) {
+		_sizes = sizes;
+	}
+
+	/*
+	 * Set whether every session does a handshake and the window it offers.
+	 */
+	public void setHandshake(boolean handshake, int window) {
+		_handshake = handshake;
+		_window = window;
+	}
+
+	/**
+	 * Sends messages at a fixed rate, whether or not the earlier ones are done.
+	 *
+	 * @param messagesPerSecond - the total rate of the first step
+	 * @param perStep - added to the rate every step
+	 */
+	public void setOpenLoop(double messagesPerSecond, double perStep) {
+		_openRate = messagesPerSecond;
+		_rateStep = perStep;
+	}
+
+	/**
+	 * Keeps a number of messages in flight per session.
+	 *
+	 * @param outstanding - messages each session keeps in flight
+	 * @param intervalMillis - time each session means to keep between messages, 0 for as fast as they complete
+	 */
+	public void setClosedLoop(int outstanding, double intervalMillis) {
+		_openRate = 0;
+		_outstanding = Math.max(1, Math.min(outstanding, QUEUE_CAPACITY));
+		_intervalNanos = (long) (intervalMillis * 1e6);
+	}
+
+	/**
+	 * Sets the length of the run.
+	 *
+	 * @param rampSeconds - the time over which the sessions start
+	 * @param stepSeconds - the length of every step
+	 * @param steps - the number of steps
+	 */
+	public void setSchedule(double rampSeconds, double stepSeconds, int steps) {
+		_rampNanos = (long) (rampSeconds * 1e9);
+		_stepNanos = Math.max(1, (long) (stepSeconds * 1e9));
+		_steps = Math.max(1, steps);
+	}
+
+	/**
+	 * Parses a message size distribution:
+	 *   <bytes>                        every message the same size
+	 *   uniform:<min>-<max>            any size in between, equally likely
+	 *   exp:<mean>                     exponential: mostly small, now and then large
+	 *   mix:<bytes>*<weight>,...       a few sizes, each as often as its weight
+	 *
+	 * @param spec - the distribution
+	 *
+	 * @return - the sizes, between 1 and MAX_MESSAGE bytes, or null if the spec is not understood
+	 */
+	public static IntSupplier sizes(String spec) {
+		try {
+			if (spec.startsWith("uniform:")) {
+				String[] range = spec.substring(8).split("-");
+				int min = clamp(Long.parseLong(range[0]));
+				int max = Math.max(min, clamp(Long.parseLong(range[1])));
+				return () -> ThreadLocalRandom.current().nextInt(min, max + 1);
+			}
+			if (spec.startsWith("exp:")) {
+				double mean = Double.parseDouble(spec.substring(4));
+				return () -> clamp(Math.round(-mean * Math.log(1 - ThreadLocalRandom.current().nextDouble())));
+			}
+			if (spec.startsWith("mix:")) {
+				String[] parts = spec.substring(4).split(",");
+				int[] sizes = new int[parts.length];
+				long[] cumulative = new long[parts.length];
+				long total = 0;
+				for (int i = 0; i < parts.length; i++) {
+					int star = parts[i].indexOf('*');
+					sizes[i] = clamp(Long.parseLong(star < 0 ? parts[i] : parts[i].substring(0, star)));
+					total += star < 0 ? 1 : Long.parseLong(parts[i].substring(star + 1));
+					cumulative[i] = total;
+				}
+				long sum = total;
+				return () -> {
+					long pick = ThreadLocalRandom.current().nextLong(sum);
+					int i = 0;
+					while (cumulative[i] <= pick) {
+						i++;
+					}
+					return sizes[i];
+				};
+			}
+			int size = clamp(Long.parseLong(spec));
+			return () -> size;
+		} catch (RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private static int clamp(long size) {
+		return (int) Math.max(1, Math.min(size, MAX_MESSAGE));
+	}
+
+	/**
+	 * Runs the schedule, printing a line per step and the totals at the end,
+	 * then waits for the outstanding messages and closes the sockets.
+	 *
+	 * @return - 0, or a negative number if there were no sockets
+	 */
+	public int run() {
+		if (_sockets.isEmpty()) {
+			System.err.println("no sockets to send from");
+			return -1;
+		}
+		Set<Integer> ids = new HashSet<>();
+		for (int i = 0; i < _clients.length; i++) {
+			int id;
+			do {
+				id = ThreadLocalRandom.current().nextInt();
+			} while (id == 0 || !ids.add(id));
+			Socket socket = _sockets.get(i % _sockets.size());
+			_clients[i] = new Client(socket, id);
+			socket.clients.put(id, _clients[i]);
+		}
+		_running = true;
+		_issuing = true;
+		for (int i = 0; i < _sockets.size(); i++) {
+			Socket socket = _sockets.get(i);
+			socket.io = new Thread(() -> ioLoop(socket), "load-io-" + i);
+			socket.reader = new Thread(() -> readLoop(socket), "load-reader-" + i);
+			socket.io.setDaemon(true);
+			socket.reader.setDaemon(true);
+			socket.io.start();
+			socket.reader.start();
+		}
+
+		long start = System.nanoTime();
+		long end = start + _stepNanos * _steps;
+		long stepStart = start;
+		long nextArrival = start;
+		int step = 0;
+		long now;
+		while ((now = System.nanoTime()) < end) {
+			while (_started < _clients.length
+					&& (_rampNanos == 0 || start + _rampNanos * _started / _clients.length <= now)) {
+				wake(_clients[_started++]);
+			}
+			if (now - stepStart >= _stepNanos) {
+				report("step " + step, now - stepStart, _corrected.takeAndReset(), _raw.takeAndReset(), step);
+				step++;
+				stepStart += _stepNanos;
+			}
+			long wakeAt = Math.min(stepStart + _stepNanos, end);
+			if (_started < _clients.length) {
+				wakeAt = Math.min(wakeAt, start + _rampNanos * _started / _clients.length);
+			}
+			if (_openRate > 0) {
+				// The rate grows with the sessions started during the ramp-up
+				double rate = (_openRate + _rateStep * step) * _started / _clients.length;
+				if (rate <= 0) {
+					nextArrival = now;
+				} else {
+					long interval = Math.max(1, (long) (1e9 / rate));
+					while (!_late.isEmpty() && arrive(_late.peekFirst())) {
+						_late.pollFirst();
+					}
+					while (nextArrival <= now) {
+						if (!_late.isEmpty() || !arrive(nextArrival)) {
+							late(nextArrival);
+						}
+						nextArrival += interval;
+					}
+					wakeAt = Math.min(wakeAt, nextArrival);
+				}
+			}
+			LockSupport.parkNanos(this, Math.max(0, wakeAt - now));
+		}
+		report("step " + step, System.nanoTime() - stepStart, _corrected.takeAndReset(), _raw.takeAndReset(), step);
+
+		// Let the messages in flight complete, but start no more
+		_issuing = false;
+		_dropped.addAndGet(_late.size());
+		_late.clear();
+		long deadline = System.nanoTime() + DRAIN_NANOS;
+		while (_pending.get() > 0 && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		_totalCorrected.add(_corrected.takeAndReset());
+		_totalRaw.add(_raw.takeAndReset());
+		System.out.println(String.format("total: %d sessions (%d without handshake), sent %d, completed %d, failed %d,"
+						+ " dropped %d, unserved %d, still pending %d", _connected.get(), _fallbacks.get(), _sent.get(),
+				_completed.get(), _failed.get(), _dropped.get(), _unserved, _pending.get()));
+		System.out.println("  corrected " + _totalCorrected);
+		System.out.println("  raw       " + _totalRaw);
+		close();
+		return 0;
+	}
+
+	// Print the throughput and latency of one step and add them to the totals
+	private void report(String name, long nanos, LatencyHistogram corrected, LatencyHistogram raw, int step) {
+		_totalCorrected.add(corrected);
+		_totalRaw.add(raw);
+		double seconds = nanos / 1e9;
+		long bytes = _completedBytes.getAndSet(0);
+		String offered = _openRate > 0
+				? String.format(", offered %.0f msg/s", (_openRate + _rateStep * step) * _started / _clients.length)
+				: "";
+		System.out.println(String.format("%s: %d sessions%s, done %.0f msg/s %.2f MB/s, failed %d, pending %d,"
+						+ " late %d, dropped %d", name, _connected.get(), offered, raw.getCount() / seconds,
+				bytes / seconds / (1 << 20), _failed.get(), _pending.get(), _late.size(), _dropped.get()));
+		System.out.println("  corrected " + corrected);
+		System.out.println("  raw       " + raw);
+	}
+
+	// Open loop: hand a message that is due to the next connected session with room; false when every one tried was full
+	private boolean arrive(long intended) {
+		int full = 0;
+		for (int tries = 0; tries < _started; tries++) {
+			Client client = _clients[(int) (_cursor++ % _started)];
+			if (client.session != null) {
+				if (issue(client, intended)) {
+					return true;
+				}
+				if (++full == ARRIVAL_TRIES) {
+					return false;
+				}
+			}
+		}
+		if (full > 0) {
+			return false;
+		}
+		_unserved++;
+		return true;
+	}
+
+	// Open loop: keep an arrival that found no room for a later try, or drop it when too many wait
+	private void late(long intended) {
+		if (_late.size() < MAX_LATE) {
+			_late.addLast(intended);
+		} else {
+			_dropped.incrementAndGet();
+		}
+	}
+
+	// Queue one message on a session without blocking; intended is when it was meant to start, false when the queue was full
+	private boolean issue(Client client, long intended) {
+		int size = _sizes.getAsInt();
+		ByteBuffer message = _payload.duplicate();
+		message.limit(size);
+		long start = System.nanoTime();
+		CompletableFuture<Void> done = client.session.trySend(message);
+		if (done == null) {
+			if (_openRate <= 0) {
+				_dropped.incrementAndGet();  // a closed loop keeps no more outstanding than a queue holds
+			}
+			return false;
+		}
+		_sent.incrementAndGet();
+		_pending.incrementAndGet();
+		done.whenComplete((ok, ex) -> completed(client, size, intended, start, ex));
+		return true;
+	}
+
+	// Count a completed message; in the closed loop, start the session's next one
+	private void completed(Client client, int size, long intended, long start, Throwable ex) {
+		long now = System.nanoTime();
+		_pending.decrementAndGet();
+		if (ex != null) {
+			_failed.incrementAndGet();
+			return;
+		}
+		_completed.incrementAndGet();
+		_completedBytes.addAndGet(size);
+		_raw.record(now - start);
+		if (_openRate > 0) {
+			_corrected.record(now - intended);
+			return;
+		}
+		_corrected.recordCorrected(now - start, _intervalNanos);
+		if (!_issuing) {
+			return;
+		}
+		long next = intended + _intervalNanos;
+		if (next <= now) {
+			issue(client, now);
+		} else {
+			_timer.schedule(() -> issue(client, next), next - now, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	// Have the I/O thread of a session poll it soon
+	private void wake(Client client) {
+		if (client.woken.compareAndSet(false, true)) {
+			client.socket.ready.add(client);
+			LockSupport.unpark(client.socket.io);
+		}
+	}
+
+	// I/O thread of a socket: poll the sessions that were woken or whose timers expired
+	private void ioLoop(Socket socket) {
+		while (_running) {
+			long now = System.nanoTime();
+			Client client;
+			while ((client = socket.ready.poll()) != null) {
+				client.woken.set(false);
+				service(client, now);
+			}
+			Wakeup next;
+			while ((next = socket.timers.peek()) != null && next.due <= now) {
+				socket.timers.poll();
+				if (next.client.due == next.due) {
+					service(next.client, now);
+				}
+			}
+			next = socket.timers.peek();
+			LockSupport.parkNanos(this, next == null ? IDLE_NANOS : Math.min(IDLE_NANOS, next.due - now));
+		}
+	}
+
+	// Poll a session, or move its handshake on
+	private void service(Client client, long now) {
+		try {
+			if (client.session == null && !connect(client, now)) {
+				return;
+			}
+			long wait = client.session.poll(now);
+			schedule(client, wait == Long.MAX_VALUE ? Long.MAX_VALUE : now + wait);
+		} catch (IOException ex) {
+			System.err.println("unable to send from session " + Integer.toHexString(client.offered) + ": " + ex);
+			if (client.session != null) {
+				client.session.abort(ex);
+			}
+		}
+	}
+
+	private void schedule(Client client, long due) {
+		client.due = due;
+		if (due != Long.MAX_VALUE) {
+			client.socket.timers.add(new Wakeup(due, client));
+		}
+	}
+
+	/**
+	 * Sends the next SYN when it is due and creates the session once the
+	 * handshake is answered or given up on.
+	 *
+	 * @param client - the session
+	 * @param now - the current System.nanoTime
+	 *
+	 * @return - true once the session exists
+	 */
+	private boolean connect(Client client, long now) throws IOException {
+		Socket socket = client.socket;
+		Handshake answer = client.answer;
+		if (answer == null && _handshake) {
+			if (client.attempt > 0 && now < client.due) {
+				return false;  // woken before the time out
+			}
+			if (client.attempt < SYN_ATTEMPTS) {
+				Handshake offer = new Handshake(UDPSegment.DEFAULT_MSS, _window, 1 << UDPSegment.CHECKSUM_CRC32C, 0,
+						ACK_EVERY, ACK_DELAY_MICROS, 0, 0);
+				UDPSegment.writeHeader(socket.syn, UDPSegment.TYPE_SYN, (byte) 0, client.offered, socket.src, _dst,
+						client.attempt, 0);
+				offer.write(socket.syn);
+				UDPSegment.seal(socket.syn);
+				client.synSentAt[client.attempt] = now;
+				socket.transport.send(socket.syn, _network);
+				schedule(client, now + (SYN_TIMEOUT_NANOS << client.attempt));
+				client.attempt++;
+				return false;
+			}
+			_fallbacks.incrementAndGet();
+		}
+		SenderSession.Stripe[] stripes = { new SenderSession.Stripe(socket.transport, socket.src, _network) };
+		SenderSession session;
+		if (answer != null) {
+			session = new SenderSession(answer.connId, stripes, _dst, answer.window, QUEUE_CAPACITY, answer.mss);
+			session.setNegotiated(answer.checksum(), answer.buffer, client.rtt);
+			socket.clients.put(answer.connId, client);
+		} else {
+			session = new SenderSession(client.offered, stripes, _dst, _window, QUEUE_CAPACITY);
+		}
+		session.setWakeup(() -> wake(client));
+		client.session = session;
+		_connected.incrementAndGet();
+		if (_openRate == 0) {
+			for (int i = 0; i < _outstanding; i++) {
+				issue(client, now);
+			}
+		}
+		return true;
+	}
+
+	// Reader thread of a socket: hand every reply to its session
+	private void readLoop(Socket socket) {
+		ByteBuffer[] batch = new ByteBuffer[ACK_BATCH];
+		SocketAddress[] froms = new SocketAddress[ACK_BATCH];
+		for (int i = 0; i < ACK_BATCH; i++) {
+			batch[i] = ByteBuffer.allocateDirect(UDPSegment.MAX_SEGMENT);
+		}
+		while (_running) {
+			int received;
+			try {
+				received = socket.transport.receiveBatch(batch, froms, 0);
+			} catch (IOException ex) {
+				if (_running) {
+					System.err.println("Unable to receive message from server: " + ex);
+				}
+				return;
+			}
+			long now = System.nanoTime();
+			for (int i = 0; i < received; i++) {
+				ByteBuffer buffer = batch[i];
+				buffer.flip();
+				Client client = UDPSegment.isSegment(buffer) ? socket.clients.get(UDPSegment.connectionId(buffer)) : null;
+				if (client != null) {
+					if (UDPSegment.type(buffer) == UDPSegment.TYPE_SYN_ACK) {
+						onSynAck(client, buffer, now);
+					} else if (client.session != null) {
+						client.session.onSegment(buffer, now);
+					}
+				}
+				buffer.clear();
+			}
+		}
+	}
+
+	// Take the first answer to any SYN of a session and wake it to connect
+	private void onSynAck(Client client, ByteBuffer buffer, long now) {
+		if (client.answer != null || !UDPSegment.verify(buffer)) {
+			return;
+		}
+		int echoed = UDPSegment.acknowledgement(buffer);
+		Handshake answer = Handshake.read(UDPSegment.payload(buffer));
+		if (answer == null || echoed < 0 || echoed >= client.attempt) {
+			return;
+		}
+		client.rtt = now - client.synSentAt[echoed];
+		client.answer = answer;
+		wake(client);
+	}
+
+	// Stop the threads, fail what is still in flight and close the sockets
+	private void close() {
+		_running = false;
+		_timer.shutdownNow();
+		for (Socket socket : _sockets) {
+			LockSupport.unpark(socket.io);
+			socket.transport.close();
+		}
+		for (Client client : _clients) {
+			if (client != null && client.session != null) {
+				client.session.abort(new IOException("load generator closed"));
+			}
+		}
+	}
+
+	/**
+	 * Main method: parse the workload and run it.
+	 *
+	 * @param args - the first sender port, receiver and network, then name=value options
+	 */
+	public static void main(String[] args) {
+		String usage = "Usage: LoadGenerator <first sender port> <serverName> <receiver port number> <networkName>"
+				+ " <network port number> [sessions=N] [sockets=N] [size=<bytes>|uniform:<min>-<max>|exp:<mean>"
+				+ "|mix:<bytes>*<weight>,...] [open=<msg/s>[+<per step>] | closed=<outstanding>[@<interval ms>]]"
+				+ " [ramp=<s>] [step=<s>] [steps=N] [window=N] [handshake=on|off]\n";
+		if (args.length < 5) {
+			System.err.println(usage);
+			return;
+		}
+		int sessions = 100;
+		int sockets = 1;
+		LoadGenerator generator;
+		try {
+			for (int i = 5; i < args.length; i++) {
+				if (args[i].startsWith("sessions=")) {
+					sessions = Integer.parseInt(args[i].substring(9));
+				} else if (args[i].startsWith("sockets=")) {
+					sockets = Integer.parseInt(args[i].substring(8));
+				}
+			}
+			generator = new LoadGenerator(sessions, args[1], Integer.parseInt(args[2]), args[3],
+					Integer.parseInt(args[4]));
+			double ramp = 0;
+			double step = 10;
+			int steps = 1;
+			int window = WINDOW;
+			boolean handshake = true;
+			for (int i = 5; i < args.length; i++) {
+				String arg = args[i];
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if (arg.startsWith("size=")) {
+					IntSupplier sizes = sizes(value);
+					if (sizes == null) {
+						System.err.println(usage);
+						return;
+					}
+					generator.setSizes(sizes);
+				} else if (arg.startsWith("open=")) {
+					int plus = value.indexOf('+');
+					generator.setOpenLoop(Double.parseDouble(plus < 0 ? value : value.substring(0, plus)),
+							plus < 0 ? 0 : Double.parseDouble(value.substring(plus + 1)));
+				} else if (arg.startsWith("closed=")) {
+					int at = value.indexOf('@');
+					generator.setClosedLoop(Integer.parseInt(at < 0 ? value : value.substring(0, at)),
+							at < 0 ? 0 : Double.parseDouble(value.substring(at + 1)));
+				} else if (arg.startsWith("ramp=")) {
+					ramp = Double.parseDouble(value);
+				} else if (arg.startsWith("step=")) {
+					step = Double.parseDouble(value);
+				} else if (arg.startsWith("steps=")) {
+					steps = Integer.parseInt(value);
+				} else if (arg.startsWith("window=")) {
+					window = Integer.parseInt(value);
+				} else if (arg.startsWith("handshake=")) {
+					handshake = !value.equals("off");
+				} else if (!arg.startsWith("sessions=") && !arg.startsWith("sockets=")) {
+					System.err.println(usage);
+					return;
+				}
+			}
+			generator.setSchedule(ramp, step, steps);
+			generator.setHandshake(handshake, window);
+			if (generator.createSockets(Integer.parseInt(args[0]), sockets) < 0) {
+				return;
+			}
+		} catch (NumberFormatException ex) {
+			System.err.println(usage);
+			return;
+		} catch (UnknownHostException ex) {
+			System.err.println("invalid host address");
+			return;
+		}
+		generator.run();
+	}
+}
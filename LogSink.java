@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends completed messages to a MessageLog from a writer thread of its own,
+ * so neither the receive loop nor the session workers wait for the disk.
+ * Listeners assemble each message and queue it; the writer appends whatever
+ * is queued and commits in groups: after commitMessages appended messages or
+ * once the oldest uncommitted one is commitMillis old, whichever comes
+ * first. With commitMessages of 1 every message is on the device before the
+ * next one is appended.
+ *
+ * Queued bytes count as pending in their listener, so a log that falls
+ * behind shrinks the receive window instead of growing the queue; only a
+ * full queue makes a session worker wait.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class LogSink implements AutoCloseable {
+
+	private static final int QUEUE = 4096;  // messages waiting for the writer
+
+	private final MessageLog _log;
+	private final int  _commitMessages;
+	private final long _commitNanos;
+	private final BlockingQueue<Entry> _queue = new ArrayBlockingQueue<>(QUEUE);
+	private final Thread _writer;
+	private volatile boolean _running = true;
+	private volatile long _committedOffset;  // offset after the last record on the device
+	private long _appended;
+	private long _commits;
+
+	// A completed message waiting for the writer
+	private static final class Entry {
+		final int        connId;
+		final int        stream;
+		final ByteBuffer data;
+		final AtomicLong pending;  // of the listener that queued it
+
+		Entry(int connId, int stream, ByteBuffer data, AtomicLong pending) {
+			this.connId = connId;
+			this.stream = stream;
+			this.data = data;
+			this.pending = pending;
+		}
+	}
+
+	/**
+	 * Starts the writer thread.
+	 *
+	 * @param log - the log the messages are appended to
+	 * @param commitMessages - messages per commit, 0 to commit by time only
+	 * @param commitMillis - longest time a message stays uncommitted, 0 for no limit
+	 */
+	public LogSink(MessageLog log, int commitMessages, long commitMillis) {
+		_log = log;
+		_commitMessages = commitMessages;
+		_commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMillis);
+		_committedOffset = log.getEndOffset();
+		_writer = new Thread(this::write, "message-log");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	/**
+	 * A listener logging the messages of a connection and passing every chunk on.
+	 *
+	 * @param connId - the connection
+	 * @param next - the listener the chunks are passed to, or null
+	 *
+	 * @return - the listener for stream 0 of the connection
+	 */
+	public MessageListener listener(int connId, MessageListener next) {
+		return new Tee(connId, 0, next);
+	}
+
+	/*
+	 * The offset after the last message written to the storage device.
+	 */
+	public long getCommittedOffset() {
+		return _committedOffset;
+	}
+
+	/*
+	 * Messages appended and commits made so far.
+	 */
+	public String getStats() {
+		return String.format("log appended=%d commits=%d committed=%d queued=%d", _appended, _commits,
+				_committedOffset, _queue.size());
+	}
+
+	// Writer thread: append what is queued, commit by count or age
+	private void write() {
+		List<Entry> batch = new ArrayList<>();
+		long uncommitted = 0;
+		long oldest = 0;  // when the oldest uncommitted message was appended
+		while (_running || !_queue.isEmpty()) {
+			try {
+				long wait = uncommitted == 0 || _commitNanos == 0 ? TimeUnit.MILLISECONDS.toNanos(100)
+						: Math.max(0, oldest + _commitNanos - System.nanoTime());
+				Entry first = _queue.poll(wait, TimeUnit.NANOSECONDS);
+				if (first != null) {
+					batch.add(first);
+					_queue.drainTo(batch);
+				}
+			} catch (InterruptedException ex) {
+				break;
+			}
+			for (Entry entry : batch) {
+				int size = entry.data.remaining();
+				try {
+					_log.append(entry.connId, entry.stream, entry.data);
+					_appended++;
+				} catch (IOException ex) {
+					System.err.println("unable to append to the message log: " + ex);
+				}
+				entry.pending.addAndGet(-size);
+				if (uncommitted++ == 0) {
+					oldest = System.nanoTime();
+				}
+				if (_commitMessages > 0 && uncommitted >= _commitMessages) {
+					commit();
+					uncommitted = 0;
+				}
+			}
+			batch.clear();
+			if (uncommitted > 0 && _commitNanos > 0 && System.nanoTime() - oldest >= _commitNanos) {
+				commit();
+				uncommitted = 0;
+			}
+		}
+		commit();
+	}
+
+	private void commit() {
+		_log.commit();
+		_committedOffset = _log.getEndOffset();
+		_commits++;
+	}
+
+	/*
+	 * Write what is queued, commit it and stop the writer thread.
+	 */
+	@Override
+	public void close() {
+		_running = false;
+		try {
+			_writer.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Assembles the messages of one stream of a connection
+	private final class Tee implements MessageListener {
+		private final int             _connId;
+		private final int             _stream;
+		private final MessageListener _next;
+		private final AtomicLong      _pending = new AtomicLong();  // bytes of whole messages waiting for the writer
+		private ByteBuffer            _message = ByteBuffer.allocate(1024);
+
+		Tee(int connId, int stream, MessageListener next) {
+			_connId = connId;
+			_stream = stream;
+			_next = next;
+		}
+
+		@Override
+		public void onData(ByteBuffer data, boolean endOfMessage) {
+			if (_message.remaining() < data.remaining()) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(_message.capacity() * 2, _message.position() + data.remaining()));
+				_message.flip();
+				_message = grown.put(_message);
+			}
+			_message.put(data.duplicate());  // a message still being assembled does not hold up the window
+			if (_next != null) {
+				_next.onData(data, endOfMessage);
+			}
+			if (endOfMessage) {
+				_message.flip();
+				ByteBuffer copy = ByteBuffer.allocate(_message.remaining()).put(_message).flip();
+				_message.clear();
+				_pending.addAndGet(copy.remaining());
+				try {
+					_queue.put(new Entry(_connId, _stream, copy, _pending));
+				} catch (InterruptedException ex) {
+					_pending.addAndGet(-copy.remaining());
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		// An abandoned message is not logged
+		@Override
+		public void onSkip() {
+			_message.clear();
+			if (_next != null) {
+				_next.onSkip();
+			}
+		}
+
+		@Override
+		public long pending() {
+			return _pending.get() + (_next != null ? _next.pending() : 0);
+		}
+
+		@Override
+		public MessageListener forStream(int stream) {
+			return new Tee(_connId, stream, _next != null ? _next.forStream(stream) : null);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transport that connects endpoints inside one JVM through lock-free queues.
+ * No socket or system call is involved, so the protocol runs at memory speed
+ * in benchmarks and tests. Like UDP, datagrams to an unknown address or to a
+ * full inbox are silently dropped.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class MemoryTransport implements Transport {
+
+	private static final int DEFAULT_CAPACITY = 4096; // datagrams queued per endpoint
+
+	// every bound endpoint in this JVM
+	private static final ConcurrentHashMap<SocketAddress, MemoryTransport> ENDPOINTS = new ConcurrentHashMap<>();
+
+	private final InetSocketAddress _address;  // the address this endpoint is bound to
+	private final int               _capacity; // the maximum datagrams waiting in the inbox
+	private final ConcurrentLinkedQueue<Datagram> _inbox = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger     _queued = new AtomicInteger();
+	private volatile Thread         _waiter;   // the thread parked in receive
+	private volatile boolean        _closed;
+
+	// One queued datagram and the address it came from
+	private static final class Datagram {
+		final byte[]        data;
+		final SocketAddress from;
+
+		Datagram(byte[] data, SocketAddress from) {
+			this.data = data;
+			this.from = from;
+		}
+	}
+
+	/**
+	 * Binds a new in-memory endpoint to an address.
+	 *
+	 * @param address - the address other endpoints send to
+	 */
+	public MemoryTransport(InetSocketAddress address) throws BindException {
+		this(address, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Binds a new in-memory endpoint to an address.
+	 *
+	 * @param address - the address other endpoints send to
+	 * @param capacity - the number of datagrams the inbox holds before dropping
+	 */
+	public MemoryTransport(InetSocketAddress address, int capacity) throws BindException {
+		_address = address;
+		_capacity = capacity;
+		if (ENDPOINTS.putIfAbsent(address, this) != null) {
+			throw new BindException("address already in use: " + address);
+		}
+	}
+
+	@Override
+	public void send(ByteBuffer src, SocketAddress target) throws IOException {
+		if (_closed) {
+			throw new IOException("transport closed");
+		}
+		MemoryTransport peer = ENDPOINTS.get(target);
+		if (peer == null || peer._queued.incrementAndGet() > peer._capacity) {
+			if (peer != null) {
+				peer._queued.decrementAndGet();
+			}
+			src.position(src.limit()); // dropped, as a full socket buffer would
+			return;
+		}
+		byte[] data = new byte[src.remaining()];
+		src.get(data);
+		peer._inbox.offer(new Datagram(data, _address));
+		LockSupport.unpark(peer._waiter);
+	}
+
+	@Override
+	public SocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		Datagram datagram = _inbox.poll();
+		while (datagram == null) {
+			if (_closed) {
+				throw new IOException("transport closed");
+			}
+			_waiter = Thread.currentThread();
+			datagram = _inbox.poll();   // re-check after publishing the waiter
+			if (datagram != null) {
+				break;
+			}
+			if (timeoutMillis > 0) {
+				long wait = deadline - System.nanoTime();
+				if (wait <= 0) {
+					_waiter = null;
+					return null;
+				}
+				LockSupport.parkNanos(this, wait);
+			} else {
+				LockSupport.park(this);
+			}
+			datagram = _inbox.poll();
+		}
+		_waiter = null;
+		_queued.decrementAndGet();
+		dst.put(datagram.data, 0, Math.min(datagram.data.length, dst.remaining()));
+		return datagram.from;
+	}
+
+	@Override
+	public int receiveBatch(ByteBuffer[] dsts, SocketAddress[] froms, long timeoutMillis) throws IOException {
+		froms[0] = receive(dsts[0], timeoutMillis);
+		if (froms[0] == null) {
+			return 0;
+		}
+		int count = 1;
+		Datagram datagram;
+		while (count < dsts.length && (datagram = _inbox.poll()) != null) {
+			_queued.decrementAndGet();
+			dsts[count].put(datagram.data, 0, Math.min(datagram.data.length, dsts[count].remaining()));
+			froms[count++] = datagram.from;
+		}
+		return count;
+	}
+
+	@Override
+	public SocketAddress localAddress() {
+		return _address;
+	}
+
+	@Override
+	public void close() {
+		_closed = true;
+		ENDPOINTS.remove(_address, this);
+		LockSupport.unpark(_waiter);
+	}
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Blocking stream view of the messages of one connection, backed by a queue
+ * of chunks. Each message reads as one stream: read returns -1 at its end,
+ * and nextMessage moves on to the following one. Reading a message the sender
+ * abandoned halfway fails with an IOException once its delivered bytes are
+ * read; nextMessage still moves on. The other streams of the
+ * connection each get their own MessageInputStream, found with stream.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class MessageInputStream extends InputStream implements MessageListener {
+
+	private static final byte[] END = new byte[0]; // marks the end of a message in the queue
+	private static final byte[] ABANDONED = new byte[0]; // marks the end of a message cut short by the sender
+
+	private final ArrayDeque<byte[]> _chunks = new ArrayDeque<>();
+	private byte[]  _chunk = null;  // chunk being read
+	private int     _pos;           // read position in _chunk
+	private boolean _closed;
+	private long    _pending;       // bytes queued and not read yet
+	private final Map<Integer, MessageInputStream> _streams = new HashMap<>(); // other streams of the connection
+
+	@Override
+	public synchronized void onData(ByteBuffer data, boolean endOfMessage) {
+		if (data.hasRemaining()) {
+			byte[] chunk = new byte[data.remaining()];
+			data.get(chunk);
+			_chunks.add(chunk);
+			_pending += chunk.length;
+		}
+		if (endOfMessage) {
+			_chunks.add(END);
+		}
+		notifyAll();
+	}
+
+	@Override
+	public synchronized void onSkip() {
+		_chunks.add(ABANDONED);
+		notifyAll();
+	}
+
+	@Override
+	public synchronized int read() throws IOException {
+		if (!fill()) {
+			return end();
+		}
+		_pending--;
+		return _chunk[_pos++] & 0xFF;
+	}
+
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return end();
+		}
+		int n = Math.min(len, _chunk.length - _pos);
+		System.arraycopy(_chunk, _pos, b, off, n);
+		_pos += n;
+		_pending -= n;
+		return n;
+	}
+
+	@Override
+	public synchronized int available() {
+		return _chunk == null || _chunk == END ? 0 : _chunk.length - _pos;
+	}
+
+	/**
+	 * Skips what is left of the current message and starts reading the next one.
+	 *
+	 * @return false if the stream was closed
+	 */
+	public synchronized boolean nextMessage() throws IOException {
+		while (fill()) {
+			_pending -= _chunk.length - _pos;
+			_pos = _chunk.length;
+		}
+		if (_chunk != END && _chunk != ABANDONED) {
+			return false;
+		}
+		_chunk = null;
+		return true;
+	}
+
+	@Override
+	public synchronized long pending() {
+		return _pending;
+	}
+
+	@Override
+	public MessageListener forStream(int stream) {
+		return stream(stream);
+	}
+
+	/**
+	 * @param stream - the stream id, 0 for this stream
+	 *
+	 * @return - the input stream of another stream of the same connection
+	 */
+	public synchronized MessageInputStream stream(int stream) {
+		if (stream == 0) {
+			return this;
+		}
+		return _streams.computeIfAbsent(stream, id -> new MessageInputStream());
+	}
+
+	@Override
+	public synchronized void close() {
+		_closed = true;
+		notifyAll();
+		for (MessageInputStream stream : _streams.values()) {
+			stream.close();
+		}
+	}
+
+	// -1 at the end of a message, an exception if the message was abandoned
+	private int end() throws IOException {
+		if (_chunk == ABANDONED) {
+			throw new IOException("message abandoned by the sender");
+		}
+		return -1;
+	}
+
+	// Wait until there are bytes to read; false at the end of the message or stream
+	private boolean fill() throws IOException {
+		while (_chunk == null || _chunk != END && _chunk != ABANDONED && _pos == _chunk.length) {
+			while (_chunks.isEmpty()) {
+				if (_closed) {
+					return false;
+				}
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					throw new InterruptedIOException();
+				}
+			}
+			_chunk = _chunks.poll();
+			_pos = 0;
+		}
+		return _chunk != END && _chunk != ABANDONED;
+	}
+}
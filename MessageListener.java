@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the messages of one connection while they are still arriving.
+ * Data is handed over in sequence order, one segment at a time, so a large
+ * message can be processed before its last segment is received.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public interface MessageListener {
+
+	/**
+	 * Called for every in-order chunk of a message. The buffer is only valid
+	 * during the call; copy the bytes to keep them.
+	 *
+	 * @param data - the next bytes of the current message
+	 * @param endOfMessage - true for the last chunk of the message
+	 */
+	void onData(ByteBuffer data, boolean endOfMessage);
+
+	/**
+	 * Called instead of the rest of a message the sender abandoned after part
+	 * of it was delivered. The chunks of that message received so far are all
+	 * there will be; the next chunk starts a new message.
+	 */
+	default void onSkip() {
+	}
+
+	/**
+	 * Bytes handed to this listener that the application has not consumed yet.
+	 * They count against the receive window, so a slow consumer slows the sender
+	 * down. Listeners that process data inside onData keep the default.
+	 *
+	 * @return - the number of buffered bytes
+	 */
+	default long pending() {
+		return 0;
+	}
+
+	/**
+	 * The listener for another stream of the same connection. Chunks of
+	 * different streams arrive interleaved, so a listener that assembles
+	 * messages returns a separate listener per stream. The default shares this
+	 * one, which suits listeners that handle every chunk on its own.
+	 *
+	 * @param stream - the stream id, never 0; stream 0 is this listener
+	 *
+	 * @return - the listener of the stream, created on its first segment
+	 */
+	default MessageListener forStream(int stream) {
+		return this;
+	}
+}
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of received messages in memory-mapped segment files. Each
+ * message gets the next offset, starting at 0, and a timestamp that never
+ * goes backwards. A segment is rolled when the next record does not fit in
+ * its size; it is named after the offset of its first record.
+ *
+ * Record layout (big endian):
+ *   0  size       4 bytes  RECORD_HEADER + payload length, written last
+ *   4  checksum   4 bytes  CRC32C of the rest of the record
+ *   8  offset     8 bytes
+ *   16 timestamp  8 bytes  milliseconds since the epoch
+ *   24 connection 4 bytes
+ *   28 stream     4 bytes
+ *   32 payload
+ *
+ * A zero size marks the end of a segment. Every segment has a sparse index
+ * file with an entry every indexInterval bytes of records: relative offset,
+ * position (4 bytes each) and timestamp (8 bytes). Seeking by offset or by
+ * time binary searches the index and then scans at most indexInterval bytes.
+ *
+ * Records are visible to readers in this process as soon as append returns
+ * and on the storage device after commit. When a log is opened again, its
+ * last segment is scanned and cut at the first incomplete or corrupt record.
+ * One thread appends; any number of threads may read.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class MessageLog implements AutoCloseable {
+
+	public static final int RECORD_HEADER = 32;
+	private static final int INDEX_ENTRY = 16;
+	private static final String LOG_SUFFIX = ".log";
+	private static final String INDEX_SUFFIX = ".index";
+
+	private final Path _dir;
+	private final int  _segmentBytes;   // size of a new segment file
+	private final int  _indexInterval;  // record bytes between index entries
+	private final ConcurrentSkipListMap<Long, Segment> _segments = new ConcurrentSkipListMap<>(); // by base offset
+	private final CRC32C _crc = new CRC32C();
+	private Segment _active;             // the segment being appended to
+	private long _nextOffset;
+	private long _lastTimestamp;
+	private volatile long _endOffset;    // offset after the last record readers may see
+
+	// One segment file with its index
+	private static final class Segment {
+		final long             base;       // offset of its first record
+		final MappedByteBuffer log;
+		final MappedByteBuffer index;
+		volatile int           end;        // position after its last record
+		volatile int           entries;    // index entries in use
+		int                    indexedAt = -1; // position of the last indexed record
+
+		Segment(long base, MappedByteBuffer log, MappedByteBuffer index) {
+			this.base = base;
+			this.log = log;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * A record read from the log. The payload is a read-only view of the
+	 * segment and stays valid while the log is open.
+	 */
+	public static final class Record {
+		public final long       offset;
+		public final long       timestamp;
+		public final int        connId;
+		public final int        stream;
+		public final ByteBuffer payload;
+
+		Record(long offset, long timestamp, int connId, int stream, ByteBuffer payload) {
+			this.offset = offset;
+			this.timestamp = timestamp;
+			this.connId = connId;
+			this.stream = stream;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Opens a log, recovering the records already in the directory.
+	 *
+	 * @param dir - the directory of the segment files, created if needed
+	 * @param segmentBytes - the size of a segment file
+	 * @param indexInterval - record bytes between two index entries
+	 */
+	public MessageLog(Path dir, int segmentBytes, int indexInterval) throws IOException {
+		_dir = Files.createDirectories(dir);
+		_segmentBytes = segmentBytes;
+		_indexInterval = indexInterval;
+		TreeMap<Long, Path> files = new TreeMap<>();
+		try (Stream<Path> list = Files.list(dir)) {
+			list.forEach(path -> {
+				String name = path.getFileName().toString();
+				if (name.endsWith(LOG_SUFFIX)) {
+					files.put(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())), path);
+				}
+			});
+		}
+		for (Map.Entry<Long, Path> file : files.entrySet()) {
+			Segment segment = map(file.getKey(), (int) Files.size(file.getValue()));
+			loadIndex(segment);
+			_segments.put(segment.base, segment);
+		}
+		if (_segments.isEmpty()) {
+			_active = roll(0, 0);
+		} else {
+			_active = _segments.lastEntry().getValue();
+			recover(_active);
+		}
+		_endOffset = _nextOffset;
+	}
+
+	// Map a segment file and its index, creating them if needed
+	private Segment map(long base, int size) throws IOException {
+		String name = String.format("%020d", base);
+		MappedByteBuffer log;
+		MappedByteBuffer index;
+		try (FileChannel channel = FileChannel.open(_dir.resolve(name + LOG_SUFFIX), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			log = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		try (FileChannel channel = FileChannel.open(_dir.resolve(name + INDEX_SUFFIX), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			index = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) (size / _indexInterval + 2) * INDEX_ENTRY);
+		}
+		return new Segment(base, log, index);
+	}
+
+	// Count the index entries of a segment: the first is at position 0, the others after it
+	private static void loadIndex(Segment segment) {
+		int entries = 0;
+		while ((entries + 1) * INDEX_ENTRY <= segment.index.capacity()
+				&& (entries == 0 || segment.index.getInt(entries * INDEX_ENTRY + 4) > 0)) {
+			entries++;
+		}
+		segment.entries = entries;
+		segment.end = segment.log.capacity();  // older segments are complete
+	}
+
+	// Find the end of the last segment, dropping a torn or corrupt tail and the index entries past it
+	private void recover(Segment segment) {
+		int position = 0;
+		long offset = segment.base;
+		long timestamp = 0;
+		while (true) {
+			int size = recordSize(segment.log, position);
+			if (size < 0 || segment.log.getLong(position + 8) != offset || !checksumOk(segment.log, position, size)) {
+				break;
+			}
+			timestamp = segment.log.getLong(position + 16);
+			position += size;
+			offset++;
+		}
+		if (position + 4 <= segment.log.capacity()) {
+			segment.log.putInt(position, 0);  // cut anything torn after the last good record
+		}
+		int entries = 0;
+		while (entries < segment.entries && segment.index.getInt(entries * INDEX_ENTRY + 4) < position) {
+			entries++;
+		}
+		if (position == 0) {
+			entries = 0;
+		}
+		for (int i = entries; i < segment.entries; i++) {
+			segment.index.putLong(i * INDEX_ENTRY, 0);
+			segment.index.putLong(i * INDEX_ENTRY + 8, 0);
+		}
+		segment.entries = entries;
+		segment.indexedAt = entries == 0 ? -1 : segment.index.getInt((entries - 1) * INDEX_ENTRY + 4);
+		segment.end = position;
+		_nextOffset = offset;
+		_lastTimestamp = timestamp;
+	}
+
+	// The size of the record at a position, or -1 if there is none
+	private static int recordSize(ByteBuffer log, int position) {
+		if (position + RECORD_HEADER > log.capacity()) {
+			return -1;
+		}
+		int size = log.getInt(position);
+		return size < RECORD_HEADER || position + size > log.capacity() ? -1 : size;
+	}
+
+	private boolean checksumOk(ByteBuffer log, int position, int size) {
+		_crc.reset();
+		_crc.update(log.slice(position + 8, size - 8));
+		return (int) _crc.getValue() == log.getInt(position + 4);
+	}
+
+	// Start a new segment at an offset, large enough for a first record of the given size
+	private Segment roll(long base, int recordSize) throws IOException {
+		Segment segment = map(base, Math.max(_segmentBytes, recordSize + 4));
+		segment.end = 0;
+		_segments.put(base, segment);
+		return segment;
+	}
+
+	/**
+	 * Appends a message.
+	 *
+	 * @param connId - the connection it came from
+	 * @param stream - the stream it came on
+	 * @param payload - the message, from position to limit; consumed
+	 *
+	 * @return - the offset of the message
+	 */
+	public long append(int connId, int stream, ByteBuffer payload) throws IOException {
+		int size = RECORD_HEADER + payload.remaining();
+		Segment segment = _active;
+		if (segment.end + size + 4 > segment.log.capacity()) {
+			commit();  // the full segment is not touched again
+			segment = roll(_nextOffset, size);
+			_active = segment;
+		}
+		long offset = _nextOffset++;
+		long timestamp = Math.max(System.currentTimeMillis(), _lastTimestamp);  // never backwards, so it can be searched
+		_lastTimestamp = timestamp;
+		int position = segment.end;
+		ByteBuffer log = segment.log;
+		log.putLong(position + 8, offset);
+		log.putLong(position + 16, timestamp);
+		log.putInt(position + 24, connId);
+		log.putInt(position + 28, stream);
+		log.put(position + RECORD_HEADER, payload, payload.position(), payload.remaining());
+		payload.position(payload.limit());
+		_crc.reset();
+		_crc.update(log.slice(position + 8, size - 8));
+		log.putInt(position + 4, (int) _crc.getValue());
+		log.putInt(position + size, 0);  // end marker after it
+		log.putInt(position, size);
+		if (segment.indexedAt < 0 || position - segment.indexedAt >= _indexInterval) {
+			int entry = segment.entries * INDEX_ENTRY;
+			segment.index.putInt(entry, (int) (offset - segment.base));
+			segment.index.putInt(entry + 4, position);
+			segment.index.putLong(entry + 8, timestamp);
+			segment.entries++;
+			segment.indexedAt = position;
+		}
+		segment.end = position + size;
+		_endOffset = _nextOffset;  // publish to readers
+		synchronized (this) {
+			notifyAll();
+		}
+		return offset;
+	}
+
+	/*
+	 * Write the records appended so far to the storage device.
+	 */
+	public void commit() {
+		_active.log.force();
+		_active.index.force();
+	}
+
+	/*
+	 * The offset the next message will get.
+	 */
+	public long getEndOffset() {
+		return _endOffset;
+	}
+
+	/**
+	 * Opens a reader at an offset.
+	 *
+	 * @param offset - the first offset to read, clamped to the records in the log
+	 *
+	 * @return - a reader positioned at that record
+	 */
+	public Reader reader(long offset) {
+		Reader reader = new Reader();
+		reader.seek(offset);
+		return reader;
+	}
+
+	/**
+	 * Opens a reader at the first record with a timestamp at or after a time.
+	 *
+	 * @param timestamp - milliseconds since the epoch
+	 *
+	 * @return - a reader positioned at that record, or at the end of the log
+	 */
+	public Reader readerAt(long timestamp) {
+		Reader reader = new Reader();
+		reader.seekTime(timestamp);
+		return reader;
+	}
+
+	// Wait until a record with this offset is published or the time is up
+	private synchronized void await(long offset, long deadline) throws InterruptedException {
+		long wait;
+		while (_endOffset <= offset && (wait = deadline - System.currentTimeMillis()) > 0) {
+			wait(wait);
+		}
+	}
+
+	@Override
+	public void close() {
+		commit();
+	}
+
+	/**
+	 * Reads records in offset order. A reader belongs to one thread.
+	 */
+	public final class Reader {
+		private Segment _segment;
+		private int     _position;
+		private long    _offset;   // offset of the record at _position
+
+		/*
+		 * Move to an offset: binary search the index, then scan forward.
+		 */
+		public void seek(long offset) {
+			Map.Entry<Long, Segment> floor = _segments.floorEntry(Math.max(offset, 0));
+			if (floor == null) {
+				floor = _segments.firstEntry();
+			}
+			_segment = floor.getValue();
+			int low = 0;
+			int high = _segment.entries - 1;
+			int found = -1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (_segment.base + _segment.index.getInt(mid * INDEX_ENTRY) <= offset) {
+					found = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			start(found);
+			while (_offset < offset && step()) {
+				// scan the records between the index entry and the offset
+			}
+		}
+
+		/*
+		 * Move to the first record at or after a time.
+		 */
+		public void seekTime(long timestamp) {
+			// The last segment whose first record is before the time holds the first record at or after it
+			_segment = _segments.firstEntry().getValue();
+			for (Segment segment : _segments.values()) {
+				if (segment.entries > 0 && segment.index.getLong(8) < timestamp) {
+					_segment = segment;
+				}
+			}
+			int low = 0;
+			int high = _segment.entries - 1;
+			int found = -1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (_segment.index.getLong(mid * INDEX_ENTRY + 8) < timestamp) {
+					found = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			start(found);
+			while (_offset < _endOffset && _segment.log.getLong(_position + 16) < timestamp && step()) {
+				// scan to the first record at or after the time
+			}
+		}
+
+		// Position at an index entry of the current segment, or at its start
+		private void start(int entry) {
+			_position = entry < 0 ? 0 : _segment.index.getInt(entry * INDEX_ENTRY + 4);
+			_offset = _segment.base + (entry < 0 ? 0 : _segment.index.getInt(entry * INDEX_ENTRY));
+		}
+
+		// Move past the current record; false at the end of the log
+		private boolean step() {
+			if (_offset >= _endOffset) {
+				return false;
+			}
+			_position += _segment.log.getInt(_position);
+			_offset++;
+			follow();
+			return true;
+		}
+
+		// Move to the next segment once the offset is its first; it may have been rolled since the last step
+		private void follow() {
+			Segment segment = _segments.floorEntry(_offset).getValue();
+			if (segment != _segment) {
+				_segment = segment;
+				_position = 0;
+			}
+		}
+
+		/*
+		 * The offset of the record next returns.
+		 */
+		public long position() {
+			return _offset;
+		}
+
+		/*
+		 * The next record, or null at the end of the log.
+		 */
+		public Record next() {
+			if (_offset >= _endOffset) {
+				return null;
+			}
+			follow();
+			ByteBuffer log = _segment.log;
+			int size = log.getInt(_position);
+			Record record = new Record(_offset, log.getLong(_position + 16), log.getInt(_position + 24),
+					log.getInt(_position + 28), log.slice(_position + RECORD_HEADER, size - RECORD_HEADER).asReadOnlyBuffer());
+			step();
+			return record;
+		}
+
+		/**
+		 * Tails the log: waits for the next record to be appended.
+		 *
+		 * @param timeoutMillis - how long to wait
+		 *
+		 * @return - the next record, or null if none was appended in time
+		 */
+		public Record take(long timeoutMillis) throws InterruptedException {
+			await(_offset, System.currentTimeMillis() + timeoutMillis);
+			return next();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that spaces datagrams out over time instead of sending a whole
+ * window back to back. It is kept as a theoretical arrival time: each send
+ * moves the time forward by the bytes sent divided by the rate, and a send is
+ * allowed while that time is less than one burst ahead of now.
+ *
+ * The burst is never smaller than GRANULARITY worth of bytes. A parked thread
+ * wakes up late by tens of microseconds, and the burst lets the next wake up
+ * catch up on what was missed, so the rate holds without spinning on the CPU.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class Pacer {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final long GRANULARITY = TimeUnit.MICROSECONDS.toNanos(250); // timer resolution the burst covers
+
+	private final int _minBurst;  // bytes always allowed back to back
+	private long _rate;           // bytes per second, 0 for no limit
+	private long _burstNanos;     // the burst expressed as time at the current rate
+	private long _tat;            // theoretical arrival time of the next byte
+
+	/**
+	 * Constructs an unlimited pacer.
+	 *
+	 * @param minBurst - bytes always allowed back to back, e.g. two datagrams
+	 */
+	public Pacer(int minBurst) {
+		_minBurst = minBurst;
+		_tat = System.nanoTime();
+	}
+
+	/**
+	 * Changes the rate. Credit already earned is kept up to the new burst.
+	 *
+	 * @param bytesPerSecond - the new rate, or 0 for no limit
+	 */
+	public void setRate(long bytesPerSecond) {
+		_rate = bytesPerSecond;
+		if (bytesPerSecond > 0) {
+			long burst = Math.max(_minBurst, bytesPerSecond * GRANULARITY / NANOS_PER_SECOND);
+			_burstNanos = burst * NANOS_PER_SECOND / bytesPerSecond;
+		}
+	}
+
+	public long getRate() {
+		return _rate;
+	}
+
+	/**
+	 * @param now - the current System.nanoTime
+	 *
+	 * @return nanoseconds until the next datagram may be sent, 0 if it may be sent now
+	 */
+	public long delay(long now) {
+		if (_rate == 0) {
+			return 0;
+		}
+		long wait = _tat - _burstNanos - now;
+		return wait > 0 ? wait : 0;
+	}
+
+	/**
+	 * Takes the tokens for a datagram that is being sent.
+	 *
+	 * @param now - the current System.nanoTime
+	 * @param bytes - the size of the datagram
+	 */
+	public void consume(long now, int bytes) {
+		if (_rate == 0) {
+			return;
+		}
+		if (now - _tat > 0) {
+			_tat = now;  // idle time does not build up more than one burst
+		}
+		_tat += bytes * NANOS_PER_SECOND / _rate;
+	}
+}
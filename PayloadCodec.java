@@ -0,0 +1,39 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses the payload of one segment at a time. Every segment is coded on
+ * its own, so a lost or reordered segment never stops the others from being
+ * decoded. Implementations keep their state between calls and are used by one
+ * thread at a time.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public interface PayloadCodec {
+
+	/**
+	 * Compresses a payload.
+	 *
+	 * @param src - the payload, from position to limit; its position is undefined afterwards
+	 * @param dst - receives the compressed bytes from its position, never past its limit
+	 *
+	 * @return - the number of bytes written, or -1 if the result did not fit in dst
+	 */
+	int compress(ByteBuffer src, ByteBuffer dst);
+
+	/**
+	 * Restores a payload compressed by compress.
+	 *
+	 * @param src - the compressed bytes, from position to limit
+	 * @param dst - receives the payload from its position
+	 *
+	 * @return - the number of bytes written, or -1 if src is not valid or did not fit in dst
+	 */
+	int decompress(ByteBuffer src, ByteBuffer dst);
+
+	/*
+	 * Release what the codec holds outside the heap; it is not used afterwards.
+	 */
+	void close();
+}
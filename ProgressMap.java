@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Which chunks of one transfer have been received, kept in a memory-mapped
+ * sidecar file so the progress survives a restart of the receiver. Setting a
+ * bit is a plain memory write; force writes the pages to the device.
+ *
+ * Sidecar layout (big endian):
+ *   0  magic       4 bytes
+ *   4  transfer id 8 bytes
+ *   12 length      8 bytes  file length
+ *   20 chunk size  4 bytes
+ *   24 chunks      4 bytes
+ *   28 received    4 bytes  chunks whose bit is set
+ *   32 bitmap      one bit per chunk, chunk i in bit i % 8 of byte i / 8
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class ProgressMap {
+
+	private static final int MAGIC        = 0x55445054; // "UDPT"
+	private static final int ID_OFF       = 4;
+	private static final int LENGTH_OFF   = 12;
+	private static final int CHUNK_OFF    = 20;
+	private static final int CHUNKS_OFF   = 24;
+	private static final int RECEIVED_OFF = 28;
+	private static final int HEADER_SIZE  = 32;
+
+	private final ByteBuffer _map;  // the mapped sidecar, or a copy of it from read
+	private final long _transferId;
+	private final long _length;
+	private final int  _chunkSize;
+	private final int  _chunks;
+	private int _received;
+
+	private ProgressMap(ByteBuffer map) {
+		_map = map;
+		_transferId = map.getLong(ID_OFF);
+		_length = map.getLong(LENGTH_OFF);
+		_chunkSize = map.getInt(CHUNK_OFF);
+		_chunks = map.getInt(CHUNKS_OFF);
+		_received = map.getInt(RECEIVED_OFF);
+	}
+
+	/**
+	 * Opens the progress of a transfer, starting it over if the sidecar
+	 * describes another transfer or does not exist yet.
+	 *
+	 * @param path - the sidecar file
+	 * @param transferId - the transfer
+	 * @param length - the length of the file being transferred
+	 * @param chunkSize - bytes per chunk
+	 *
+	 * @return - the progress of the transfer
+	 */
+	public static ProgressMap create(Path path, long transferId, long length, int chunkSize) throws IOException {
+		int chunks = (int) ((length + chunkSize - 1) / chunkSize);
+		ProgressMap existing = open(path);
+		if (existing != null && existing._transferId == transferId && existing._length == length
+				&& existing._chunkSize == chunkSize) {
+			return existing;
+		}
+		MappedByteBuffer map;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (chunks + 7) / 8);
+		}
+		map.putLong(ID_OFF, transferId);
+		map.putLong(LENGTH_OFF, length);
+		map.putInt(CHUNK_OFF, chunkSize);
+		map.putInt(CHUNKS_OFF, chunks);
+		map.putInt(RECEIVED_OFF, 0);
+		map.putInt(0, MAGIC);  // last, so a torn sidecar is never taken for a valid one
+		return new ProgressMap(map);
+	}
+
+	/**
+	 * Opens an existing sidecar.
+	 *
+	 * @param path - the sidecar file
+	 *
+	 * @return - its progress, or null if there is no valid sidecar
+	 */
+	public static ProgressMap open(Path path) throws IOException {
+		if (!Files.isRegularFile(path) || Files.size(path) < HEADER_SIZE) {
+			return null;
+		}
+		MappedByteBuffer map;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		}
+		return isValid(map) ? new ProgressMap(map) : null;
+	}
+
+	/**
+	 * Reads an existing sidecar into memory without mapping it, e.g. to answer
+	 * a query about a transfer that is not open. Nothing is left to release,
+	 * and bits set on the copy never reach the file.
+	 *
+	 * @param path - the sidecar file
+	 *
+	 * @return - a copy of its progress, or null if there is no valid sidecar
+	 */
+	public static ProgressMap read(Path path) throws IOException {
+		if (!Files.isRegularFile(path) || Files.size(path) < HEADER_SIZE) {
+			return null;
+		}
+		ByteBuffer copy = ByteBuffer.wrap(Files.readAllBytes(path));
+		return isValid(copy) ? new ProgressMap(copy) : null;
+	}
+
+	// A complete sidecar: the magic is written last, and the bitmap fits the file
+	private static boolean isValid(ByteBuffer map) {
+		return map.capacity() >= HEADER_SIZE && map.getInt(0) == MAGIC && map.getInt(CHUNKS_OFF) >= 0
+				&& map.capacity() >= HEADER_SIZE + (map.getInt(CHUNKS_OFF) + 7) / 8;
+	}
+
+	public long getTransferId() {
+		return _transferId;
+	}
+
+	public long getLength() {
+		return _length;
+	}
+
+	public int getChunkSize() {
+		return _chunkSize;
+	}
+
+	public int getChunks() {
+		return _chunks;
+	}
+
+	public int getReceived() {
+		return _received;
+	}
+
+	public boolean isComplete() {
+		return _received == _chunks;
+	}
+
+	public boolean isSet(int chunk) {
+		return (_map.get(HEADER_SIZE + chunk / 8) & 1 << chunk % 8) != 0;
+	}
+
+	/*
+	 * Record a chunk as received; false if it already was.
+	 */
+	public boolean set(int chunk) {
+		int index = HEADER_SIZE + chunk / 8;
+		byte bits = _map.get(index);
+		byte bit = (byte) (1 << chunk % 8);
+		if ((bits & bit) != 0) {
+			return false;
+		}
+		_map.put(index, (byte) (bits | bit));
+		_map.putInt(RECEIVED_OFF, ++_received);
+		return true;
+	}
+
+	/**
+	 * Writes the missing chunks as [start, end) pairs of ints, as many as fit.
+	 *
+	 * @param from - the first chunk to look at
+	 * @param out - receives the pairs from its position
+	 *
+	 * @return - the chunk to continue from, getChunks() when every range was written
+	 */
+	public int missing(int from, ByteBuffer out) {
+		int chunk = Math.max(0, from);
+		while (chunk < _chunks) {
+			// Whole bytes of received chunks are passed over eight at a time
+			if (chunk % 8 == 0 && _map.get(HEADER_SIZE + chunk / 8) == (byte) 0xFF) {
+				chunk += 8;
+				continue;
+			}
+			if (isSet(chunk)) {
+				chunk++;
+				continue;
+			}
+			if (out.remaining() < 8) {
+				return chunk;
+			}
+			int start = chunk;
+			while (chunk < _chunks && !isSet(chunk)) {
+				chunk++;
+			}
+			out.putInt(start);
+			out.putInt(chunk);
+		}
+		return _chunks;
+	}
+
+	/*
+	 * Write the sidecar to the storage device; a copy from read has nothing to write.
+	 */
+	public void force() {
+		if (_map instanceof MappedByteBuffer) {
+			((MappedByteBuffer) _map).force();
+		}
+	}
+}
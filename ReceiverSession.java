@@ -0,0 +1,612 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving side of one connection. Segments arriving out of order are kept
+ * in a reassembly window until the missing ones arrive. A connection carries
+ * independent streams: payloads are handed to the listener of their stream
+ * in that stream's order, as soon as the earlier segments of the same stream
+ * are in, so a gap in one stream never holds up the others.
+ *
+ * Acknowledgements are header-only ACK segments: the ack field is cumulative
+ * (every sequence number below it has arrived) and the payload holds up to
+ * MAX_SACK_BLOCKS [start, end) ranges received out of order. In-order data is
+ * acknowledged every ackEvery segments or after ackDelay, whichever comes
+ * first; gaps, duplicates and message ends are acknowledged at once.
+ *
+ * Every acknowledgement advertises the free receive buffer: the capacity
+ * minus the bytes the listener has not consumed yet. Data that does not fit
+ * is dropped, and when a closed window opens again an update is sent.
+ *
+ * Compressed payloads are restored by the session's PayloadCodec before they
+ * are buffered or delivered, so the listener always sees the original bytes.
+ * Unless one is set, the codec is the one agreed in the handshake; a
+ * compressed segment with no codec agreed is dropped as undecodable.
+ * Data segments lost on the way are rebuilt from parity segments, when the
+ * sender sends them, without waiting for a retransmission.
+ *
+ * A SKIP segment names messages the sender abandoned. The window moves past
+ * their missing segments, whatever arrives of them is dropped, and a stream
+ * that already delivered part of one is told with MessageListener.onSkip.
+ *
+ * After a handshake the acknowledgement timing and the checksum algorithm
+ * are the ones agreed on; see Handshake.
+ *
+ * With a TransferStore, stream TransferStore.STREAM carries the chunks of
+ * resumable file transfers into the store, and QUERY segments are answered
+ * with the progress the store has recorded.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class ReceiverSession {
+
+	private static final int MAX_SACK_BLOCKS = 4;
+	private static final byte[] DELIVERED = new byte[0]; // slot of a segment already delivered ahead of _rcvNxt
+	private static final long WINDOW_POLL = TimeUnit.MILLISECONDS.toNanos(1); // how often a closed window is checked
+	private static final int MIN_PROGRESS = 28; // PROGRESS payload with room for one missing range
+
+	private final int                  _connId;    // connection id of the sender
+	private final Transport            _transport; // used to send acknowledgements
+	private final MessageListener      _listener;  // receives payloads in order
+	private final byte[][]             _slots;     // segments ahead of _rcvNxt indexed by seq % window: payload or DELIVERED
+	private final boolean[]            _fin;       // whether the buffered payload ends a message
+	private final boolean[]            _start;     // whether it starts one
+	private final int[]                _slotStream;    // stream of each slot
+	private final int[]                _slotStreamSeq; // sequence number within the stream of each slot
+	private final Map<Integer, InStream> _streams = new HashMap<>(); // delivery state by stream id
+	private final ByteBuffer           _ack = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE + 8 * MAX_SACK_BLOCKS);
+	private final int                  _ackEvery;  // in-order segments per acknowledgement
+	private final long                 _ackDelay;  // nanoseconds an acknowledgement may be held
+	private final int                  _capacity;  // receive buffer in bytes
+	private int                        _checksum = UDPSegment.CHECKSUM_CRC32C; // algorithm agreed on in the handshake
+	private ByteBuffer                 _inflated;  // decompressed payload, allocated on the first compressed segment
+	private PayloadCodec               _codec;     // restores compressed payloads; made from _codecs unless set
+	private int                        _codecs = Handshake.CODEC_DEFLATE; // codecs agreed in the handshake, deflate without one
+	private boolean                    _ownCodec;  // _codec was created here, so close releases it
+	private final FecDecoder.Sink      _recover = this::recover;    // takes segments rebuilt from parity
+	private FecDecoder                 _fec;       // created when the sender first sends parity
+	private TransferStore              _transfers; // where file transfers go, null for none
+	private ByteBuffer                 _reply;     // PROGRESS reply, created on the first QUERY and grown for a larger one
+
+	private InetSocketAddress _sender;     // the sender socket of the last segment, destination of acknowledgements
+	private long              _senderKey = -1; // UDPSegment.sourceKey of _sender
+	private InetSocketAddress _receiver;   // this receiver as the sender addressed it
+	private SocketAddress     _replyTo;    // where the last segment came from
+	private int  _rcvNxt;        // next sequence number expected
+	private int  _outOfOrder;    // segments received ahead of _rcvNxt, delivered or not
+	private long _outOfOrderBytes; // payload bytes waiting for an earlier segment of their stream
+	private int  _highest;       // highest sequence number received ahead of _rcvNxt
+	private int  _lastWindow;    // window advertised in the last acknowledgement
+	private int  _unacked;       // segments received since the last acknowledgement
+	private long _ackDeadline;   // when a held acknowledgement must be sent
+	private boolean _ackPending; // an acknowledgement is being held
+	private boolean _ackNow;     // the segment being handled must be acknowledged at once
+	private long _received;      // data segments received
+	private long _acksSent;      // acknowledgements sent
+	private long _duplicates;    // data segments received twice
+	private long _overruns;      // data segments dropped because the window was full
+	private long _corrupted;     // segments dropped because of a bad checksum
+	private long _decompressed;  // compressed segments restored
+	private long _decompressNanos; // time spent in the codec
+	private long _skipsReceived;   // SKIP segments received
+	private long _messagesSkipped; // abandoned messages of which some data had been delivered
+
+	/**
+	 * Constructs a receiver session.
+	 *
+	 * @param connId - connection id of the sender
+	 * @param transport - the transport used to send acknowledgements
+	 * @param window - the number of segments that can be buffered out of order
+	 * @param ackEvery - the number of in-order segments acknowledged together
+	 * @param ackDelayMicros - how long an acknowledgement may be held, in microseconds
+	 * @param capacity - the receive buffer in bytes, shared by out-of-order and unconsumed data
+	 * @param listener - receives payloads in sequence order
+	 */
+	public ReceiverSession(int connId, Transport transport, int window, int ackEvery, long ackDelayMicros,
+						   int capacity, MessageListener listener) {
+		_connId = connId;
+		_capacity = capacity;
+		_lastWindow = capacity;
+		_ackEvery = ackEvery;
+		_ackDelay = TimeUnit.MICROSECONDS.toNanos(ackDelayMicros);
+		_transport = transport;
+		_listener = listener;
+		_slots = new byte[window][];
+		_fin = new boolean[window];
+		_start = new boolean[window];
+		_slotStream = new int[window];
+		_slotStreamSeq = new int[window];
+	}
+
+	// Delivery state of one stream
+	private static final class InStream {
+		final MessageListener listener;
+		final ArrayDeque<int[]> skips = new ArrayDeque<>(); // abandoned [from, to) ranges ahead of next
+		int                   next;    // next sequence number of the stream to deliver
+		boolean               partial; // part of a message has been delivered
+
+		InStream(MessageListener listener) {
+			this.listener = listener;
+		}
+	}
+
+	public int getConnectionId() {
+		return _connId;
+	}
+
+	/*
+	 * Check and seal segments with the UDPSegment.CHECKSUM_ algorithm agreed on in the handshake.
+	 */
+	public synchronized void setChecksum(int checksum) {
+		_checksum = checksum;
+	}
+
+	/*
+	 * Take the chunks of file transfers into a store and answer QUERY segments from it.
+	 */
+	public synchronized void setTransfers(TransferStore transfers) {
+		_transfers = transfers;
+	}
+
+	/*
+	 * Set the Handshake.CODEC_ bits agreed in the handshake; a compressed segment for none of them cannot be restored.
+	 */
+	public synchronized void setCodecs(int codecs) {
+		_codecs = codecs;
+	}
+
+	/*
+	 * Set the codec that restores compressed payloads; it must match the sender's.
+	 */
+	public synchronized void setCodec(PayloadCodec codec) {
+		if (_ownCodec) {
+			_codec.close();
+		}
+		_codec = codec;
+		_ownCodec = false;
+	}
+
+	/*
+	 * Release the codec the session created for itself; the session is not used afterwards.
+	 */
+	public synchronized void close() {
+		if (_ownCodec) {
+			_codec.close();
+			_codec = null;
+			_ownCodec = false;
+		}
+		_inflated = null;
+	}
+
+	/**
+	 * Handles a segment of this connection.
+	 *
+	 * @param buf - the datagram, from 0 to limit
+	 * @param from - the address the datagram came from, where the acknowledgement goes
+	 * @param now - the current System.nanoTime
+	 */
+	public synchronized void onSegment(ByteBuffer buf, SocketAddress from, long now) throws IOException {
+		if (!UDPSegment.verify(buf, _checksum)) {
+			_corrupted++;
+			return;  // the sender will time out and resend
+		}
+		byte type = UDPSegment.type(buf);
+		if (type != UDPSegment.TYPE_DATA && type != UDPSegment.TYPE_PARITY && type != UDPSegment.TYPE_SKIP
+				&& type != UDPSegment.TYPE_QUERY) {
+			return;
+		}
+		// A striped sender uses several sockets: answer the one that sent this segment
+		long senderKey = UDPSegment.sourceKey(buf);
+		if (senderKey != _senderKey) {
+			_senderKey = senderKey;
+			_sender = UDPSegment.source(buf);
+			_receiver = UDPSegment.destination(buf);
+		}
+		_replyTo = from;
+		_ackNow = false;
+		if (type == UDPSegment.TYPE_QUERY) {
+			sendProgress(buf);
+			return;
+		}
+		if (type == UDPSegment.TYPE_SKIP) {
+			skip(buf);
+			_ackNow = true;  // the sender waits for the window to pass the abandoned segments
+		} else if (type == UDPSegment.TYPE_PARITY) {
+			fec().onParity(buf, _rcvNxt, _recover);
+			if (!_ackNow) {
+				return;  // parity alone is never acknowledged
+			}
+		} else {
+			int seq = UDPSegment.sequence(buf);
+			if (seq - _rcvNxt >= _slots.length) {
+				sendAck();  // beyond the reassembly window, no room to keep it
+				return;
+			}
+			_received++;
+			byte flags = UDPSegment.flags(buf);
+			boolean protectedByParity = (flags & UDPSegment.FLAG_FEC) != 0;
+			if (accept(seq, flags, UDPSegment.stream(buf), UDPSegment.streamSequence(buf),
+					UDPSegment.payload(buf), protectedByParity)) {
+				_ackNow = true;
+			}
+			if (protectedByParity) {
+				fec().onData(seq, _rcvNxt, _recover);  // this segment may complete a group
+			}
+		}
+
+		if (_ackNow || _unacked >= _ackEvery) {
+			sendAck();
+		} else if (!_ackPending) {
+			_ackPending = true;
+			_ackDeadline = now + _ackDelay;
+		}
+	}
+
+	/*
+	 * Take one data segment, received or rebuilt from parity, into the window.
+	 *
+	 * @param seq - its sequence number
+	 * @param flags - its flags
+	 * @param stream - its stream
+	 * @param streamSeq - its sequence number within the stream
+	 * @param wire - its payload as sent, possibly compressed
+	 * @param keep - whether to keep its block for decoding parity
+	 * @return true if it must be acknowledged at once
+	 */
+	private boolean accept(int seq, byte flags, int stream, int streamSeq, ByteBuffer wire, boolean keep) {
+		int offset = seq - _rcvNxt;
+		if (offset >= _slots.length) {
+			return true;
+		}
+		_unacked++;
+		if (offset < 0 || isBuffered(seq)) {
+			_duplicates++;
+			return true;   // our acknowledgement was probably lost
+		}
+		ByteBuffer payload = payload(flags, wire);
+		if (payload == null) {
+			_corrupted++;
+			return false;
+		}
+		if (_outOfOrderBytes + pending() + payload.remaining() > _capacity) {
+			_overruns++;
+			return true;   // no room: drop it and advertise the window again
+		}
+		if (keep) {
+			fec().store(seq, flags, stream, streamSeq, wire);
+		}
+		boolean fin = (flags & UDPSegment.FLAG_FIN) != 0;
+		int index = Math.floorMod(seq, _slots.length);
+		_fin[index] = fin;
+		_start[index] = (flags & UDPSegment.FLAG_START) != 0;
+		_slotStream[index] = stream;
+		_slotStreamSeq[index] = streamSeq;
+		_outOfOrder++;
+		if (seq - _highest > 0 || _outOfOrder == 1) {
+			_highest = seq;
+		}
+		boolean immediate = true;   // tell the sender about a gap
+		InStream in = stream(stream);
+		if (streamSeq == in.next) {
+			// In order within its stream: deliver straight from the datagram, then what waited behind it
+			immediate = fin || offset > 0 || _outOfOrder > 1;
+			deliver(in, payload, _start[index], fin);
+			_slots[index] = DELIVERED;
+			deliverStream(in, stream, seq + 1);
+		} else if (streamSeq - in.next < 0) {
+			_slots[index] = DELIVERED;  // part of an abandoned message: nothing to deliver
+		} else {
+			byte[] copy = new byte[payload.remaining()];
+			payload.get(copy);
+			_slots[index] = copy;
+			_outOfOrderBytes += copy.length;
+		}
+		advance();
+		return immediate;
+	}
+
+	// Take a segment rebuilt from parity as if it had arrived
+	private void recover(int seq, byte flags, int stream, int streamSeq, ByteBuffer payload) {
+		if (accept(seq, flags, stream, streamSeq, payload, true)) {
+			_ackNow = true;
+		}
+	}
+
+	// The delivery state of a stream, created with its listener on its first segment
+	private InStream stream(int id) {
+		InStream in = _streams.get(id);
+		if (in == null) {
+			if (id == 0) {
+				in = new InStream(_listener);
+			} else if (id == TransferStore.STREAM && _transfers != null) {
+				in = new InStream(_transfers.listener());
+			} else {
+				in = new InStream(_listener.forStream(id));
+			}
+			_streams.put(id, in);
+		}
+		return in;
+	}
+
+	private FecDecoder fec() {
+		if (_fec == null) {
+			_fec = new FecDecoder(_slots.length);
+		}
+		return _fec;
+	}
+
+	/**
+	 * Sends a held acknowledgement once its delay has expired, or a window update
+	 * once the consumer has freed enough of a closed window.
+	 *
+	 * @param now - the current System.nanoTime
+	 *
+	 * @return nanoseconds until flushAck needs to run again, or Long.MAX_VALUE if nothing is waiting
+	 */
+	public synchronized long flushAck(long now) throws IOException {
+		long next = Long.MAX_VALUE;
+		if (_ackPending) {
+			if (now - _ackDeadline >= 0) {
+				sendAck();
+			} else {
+				next = _ackDeadline - now;
+			}
+		}
+		if (_sender != null && _lastWindow < _capacity / 4) {
+			if (window() >= _capacity / 4) {
+				sendAck();  // the window opened again
+			} else {
+				next = Math.min(next, WINDOW_POLL);
+			}
+		}
+		return next;
+	}
+
+	// Free receive buffer: capacity minus what the consumers have not read
+	private int window() {
+		return (int) Math.max(0, _capacity - pending());
+	}
+
+	private long pending() {
+		long pending = _listener.pending();
+		for (InStream in : _streams.values()) {
+			if (in.listener != _listener) {
+				pending += in.listener.pending();
+			}
+		}
+		return pending;
+	}
+
+	// The payload of a data segment, decompressed if needed; null if it cannot be decoded
+	private ByteBuffer payload(byte flags, ByteBuffer wire) {
+		if ((flags & UDPSegment.FLAG_COMPRESSED) == 0) {
+			return wire;
+		}
+		long start = System.nanoTime();
+		if (_codec == null) {
+			_codec = newCodec(_codecs);  // most senders never compress, so nothing is made before it is needed
+			if (_codec == null) {
+				return null;  // compressed although no codec was agreed
+			}
+			_ownCodec = true;
+		}
+		if (_inflated == null) {
+			_inflated = ByteBuffer.allocate(UDPSegment.MAX_SEGMENT);
+		}
+		_inflated.clear();
+		int position = wire.position();
+		int length = _codec.decompress(wire, _inflated);
+		wire.position(position);  // the block kept for parity needs the compressed bytes
+		_decompressNanos += System.nanoTime() - start;
+		if (length < 0) {
+			return null;
+		}
+		_decompressed++;
+		return _inflated.flip();
+	}
+
+	// The codec of the agreed bits, null if none of them is known
+	private static PayloadCodec newCodec(int codecs) {
+		return (codecs & Handshake.CODEC_DEFLATE) != 0 ? new DeflateCodec() : null;
+	}
+
+	private boolean isBuffered(int seq) {
+		return _slots[Math.floorMod(seq, _slots.length)] != null;
+	}
+
+	// Deliver the buffered segments of a stream that are now in order, looking from seq onwards
+	private void deliverStream(InStream in, int stream, int seq) {
+		skipAbandoned(in);
+		for (; seq - _highest <= 0; seq++) {
+			int index = Math.floorMod(seq, _slots.length);
+			byte[] slot = _slots[index];
+			if (slot == null || slot == DELIVERED || _slotStream[index] != stream) {
+				continue;
+			}
+			int ahead = _slotStreamSeq[index] - in.next;
+			if (ahead > 0) {
+				return;  // an earlier segment of the stream is still missing
+			}
+			if (ahead == 0) {
+				deliver(in, ByteBuffer.wrap(slot), _start[index], _fin[index]);
+			}
+			_outOfOrderBytes -= slot.length;
+			_slots[index] = DELIVERED;
+			skipAbandoned(in);
+		}
+	}
+
+	// Hand the next chunk of a stream to its listener
+	private void deliver(InStream in, ByteBuffer payload, boolean start, boolean fin) {
+		if (start && in.partial) {
+			cutShort(in);  // the previous message was abandoned after all of its sent segments arrived
+		}
+		in.listener.onData(payload, fin);
+		in.next++;
+		in.partial = !fin;
+	}
+
+	private void cutShort(InStream in) {
+		in.partial = false;
+		_messagesSkipped++;
+		in.listener.onSkip();
+	}
+
+	// Take a SKIP segment: drop the abandoned messages and move the window past them
+	private void skip(ByteBuffer buf) {
+		_skipsReceived++;
+		ByteBuffer ranges = UDPSegment.payload(buf);
+		while (ranges.remaining() >= UDPSegment.SKIP_RANGE_SIZE) {
+			int stream = ranges.getShort() & 0xFFFF;
+			int from = ranges.getInt();
+			int to = ranges.getInt();
+			InStream in = stream(stream);
+			if (from - in.next > 0) {
+				if (!isSkipQueued(in, from)) {
+					in.skips.add(new int[] { from, to });  // reached once the stream gets there
+				}
+			} else {
+				skipRange(in, from, to);
+				deliverStream(in, stream, _rcvNxt);
+			}
+		}
+		// Everything before skipTo was received or abandoned: forget the segments that never came
+		int skipTo = UDPSegment.sequence(buf);
+		if (skipTo - _rcvNxt <= 0 || skipTo - _rcvNxt > _slots.length) {
+			return;
+		}
+		for (int seq = _rcvNxt; seq != skipTo; seq++) {
+			int index = Math.floorMod(seq, _slots.length);
+			byte[] slot = _slots[index];
+			if (slot == null) {
+				_outOfOrder++;
+			} else if (slot != DELIVERED) {
+				_outOfOrderBytes -= slot.length;
+			}
+			_slots[index] = DELIVERED;
+		}
+		if (skipTo - 1 - _highest > 0) {
+			_highest = skipTo - 1;
+		}
+		advance();
+	}
+
+	private static boolean isSkipQueued(InStream in, int from) {
+		for (int[] range : in.skips) {
+			if (range[0] == from) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Apply the queued abandoned ranges the stream has reached
+	private void skipAbandoned(InStream in) {
+		while (!in.skips.isEmpty() && in.skips.peek()[0] - in.next <= 0) {
+			int[] range = in.skips.poll();
+			skipRange(in, range[0], range[1]);
+		}
+	}
+
+	// Move a stream past an abandoned message [from, to) that starts at or before its next sequence number
+	private void skipRange(InStream in, int from, int to) {
+		if (from - in.next < 0 && to - in.next >= 0 && in.partial) {
+			cutShort(in);  // the start of the message was delivered, its end never will be
+		}
+		if (to - in.next > 0) {
+			in.next = to;
+		}
+	}
+
+	// Move _rcvNxt over the segments that have been delivered
+	private void advance() {
+		int index = Math.floorMod(_rcvNxt, _slots.length);
+		while (_slots[index] == DELIVERED) {
+			_slots[index] = null;
+			_outOfOrder--;
+			_rcvNxt++;
+			index = Math.floorMod(_rcvNxt, _slots.length);
+		}
+	}
+
+	// Send a cumulative acknowledgement with the out-of-order ranges as SACK blocks
+	private void sendAck() throws IOException {
+		UDPSegment.writeHeader(_ack, UDPSegment.TYPE_ACK, (byte) 0, _connId, _receiver, _sender, 0, _rcvNxt);
+		int blocks = 0;
+		int seq = _rcvNxt + 1;
+		int end = _rcvNxt + _slots.length;
+		int remaining = _outOfOrder;
+		while (remaining > 0 && blocks < MAX_SACK_BLOCKS && seq - end < 0) {
+			if (!isBuffered(seq)) {
+				seq++;
+				continue;
+			}
+			int start = seq;
+			while (seq - end < 0 && isBuffered(seq)) {
+				seq++;
+				remaining--;
+			}
+			_ack.putInt(start);
+			_ack.putInt(seq);
+			blocks++;
+		}
+		_lastWindow = window();
+		UDPSegment.setWindow(_ack, _lastWindow);
+		UDPSegment.seal(_ack, _checksum);
+		_transport.send(_ack, _replyTo);
+		_acksSent++;
+		_unacked = 0;
+		_ackPending = false;
+	}
+
+	// Answer a QUERY with the progress of the transfer
+	private void sendProgress(ByteBuffer query) throws IOException {
+		ByteBuffer payload = UDPSegment.payload(query);
+		if (payload.remaining() < 12) {
+			return;
+		}
+		long transferId = payload.getLong();
+		int from = payload.getInt();
+		// No larger than the sender's segments, or a long list of ranges would not get through its path
+		int room = payload.remaining() >= 4 ? payload.getInt() : UDPSegment.DEFAULT_MSS;
+		room = Math.max(MIN_PROGRESS, Math.min(room, UDPSegment.MAX_SEGMENT - UDPSegment.HEADER_SIZE));
+		if (_reply == null || _reply.capacity() < UDPSegment.HEADER_SIZE + room) {
+			_reply = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE + room);
+		}
+		UDPSegment.writeHeader(_reply, UDPSegment.TYPE_PROGRESS, (byte) 0, _connId, _receiver, _sender, 0, _rcvNxt);
+		_reply.limit(UDPSegment.HEADER_SIZE + room);
+		_reply.putLong(transferId);
+		if (_transfers != null) {
+			_transfers.writeProgress(transferId, from, _reply);
+		} else {
+			_reply.putInt(0).putInt(from).putInt(0);  // no store: nothing was ever kept
+		}
+		UDPSegment.seal(_reply, _checksum);
+		_transport.send(_reply, _replyTo);
+	}
+
+	/*
+	 * Display session statistics
+	 */
+	public synchronized String getStats() {
+		return "connection: " + Integer.toHexString(_connId) +
+				", segments received: " + _received +
+				", streams: " + _streams.size() +
+				(_skipsReceived == 0 ? "" : ", skips received: " + _skipsReceived + ", messages cut short: " + _messagesSkipped) +
+				", duplicates: " + _duplicates +
+				", overruns: " + _overruns +
+				", acks sent: " + _acksSent +
+				", corrupted: " + _corrupted +
+				", decompressed: " + _decompressed +
+				", decompression time: " + TimeUnit.NANOSECONDS.toMillis(_decompressNanos) + " ms" +
+				(_fec == null ? "" : ", " + _fec.getStats());
+	}
+}
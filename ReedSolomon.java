@@ -0,0 +1,138 @@
+/**
+ * Reed-Solomon erasure code over GF(2^8) used for forward error correction.
+ * A group of up to MAX_DATA data blocks is protected by up to MAX_PARITY
+ * parity blocks; any e lost data blocks can be rebuilt from any e parity
+ * blocks of the same group.
+ *
+ * Parity block i is the sum over data blocks j of coefficient(i, j) * block j.
+ * The coefficients are a Cauchy matrix with every column scaled so that row
+ * 0 is all ones: parity 0 is the plain XOR of the group, and a single loss is
+ * rebuilt with XOR alone. Scaling columns keeps every square submatrix of a
+ * Cauchy matrix invertible, so the code stays maximum distance separable.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public final class ReedSolomon {
+
+	public static final int MAX_PARITY = 16;
+	public static final int MAX_DATA   = 256 - MAX_PARITY; // Cauchy points must all differ
+
+	private static final int POLYNOMIAL = 0x11D;  // x^8 + x^4 + x^3 + x^2 + 1
+
+	private static final byte[] EXP = new byte[512];
+	private static final int[]  LOG = new int[256];
+	private static final byte[] MUL = new byte[256 * 256];        // MUL[a << 8 | b] = a * b
+	private static final byte[][] COEFFICIENTS = new byte[MAX_PARITY][MAX_DATA];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256) {
+				x ^= POLYNOMIAL;
+			}
+		}
+		for (int i = 255; i < EXP.length; i++) {
+			EXP[i] = EXP[i - 255];
+		}
+		for (int a = 1; a < 256; a++) {
+			for (int b = 1; b < 256; b++) {
+				MUL[a << 8 | b] = EXP[LOG[a] + LOG[b]];
+			}
+		}
+		// Cauchy matrix 1 / (x_i + y_j) with x_i = i and y_j = MAX_PARITY + j, column j scaled by y_j
+		for (int i = 0; i < MAX_PARITY; i++) {
+			for (int j = 0; j < MAX_DATA; j++) {
+				int y = MAX_PARITY + j;
+				COEFFICIENTS[i][j] = mul(inverse(i ^ y), y);
+			}
+		}
+	}
+
+	private ReedSolomon() {
+	}
+
+	/*
+	 * The weight of data block j in parity block i.
+	 */
+	public static int coefficient(int parity, int data) {
+		return COEFFICIENTS[parity][data] & 0xFF;
+	}
+
+	public static byte mul(int a, int b) {
+		return MUL[(a & 0xFF) << 8 | (b & 0xFF)];
+	}
+
+	public static int inverse(int a) {
+		return EXP[255 - LOG[a & 0xFF]] & 0xFF;
+	}
+
+	/*
+	 * dst[dstOff + k] += coefficient * src[srcOff + k] for k in [0, length).
+	 */
+	public static void mulAdd(byte[] dst, int dstOff, byte[] src, int srcOff, int length, int coefficient) {
+		if (coefficient == 0) {
+			return;
+		}
+		if (coefficient == 1) {
+			for (int k = 0; k < length; k++) {
+				dst[dstOff + k] ^= src[srcOff + k];
+			}
+			return;
+		}
+		int row = coefficient << 8;
+		for (int k = 0; k < length; k++) {
+			dst[dstOff + k] ^= MUL[row | (src[srcOff + k] & 0xFF)];
+		}
+	}
+
+	/**
+	 * Inverts a square matrix by Gauss-Jordan elimination.
+	 *
+	 * @param matrix - the matrix, overwritten
+	 *
+	 * @return - the inverse, or null if the matrix is singular
+	 */
+	public static int[][] invert(int[][] matrix) {
+		int n = matrix.length;
+		int[][] inverse = new int[n][n];
+		for (int i = 0; i < n; i++) {
+			inverse[i][i] = 1;
+		}
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			while (pivot < n && matrix[pivot][col] == 0) {
+				pivot++;
+			}
+			if (pivot == n) {
+				return null;
+			}
+			int[] swap = matrix[pivot];
+			matrix[pivot] = matrix[col];
+			matrix[col] = swap;
+			swap = inverse[pivot];
+			inverse[pivot] = inverse[col];
+			inverse[col] = swap;
+			int scale = inverse(matrix[col][col]);
+			for (int k = 0; k < n; k++) {
+				matrix[col][k] = mul(matrix[col][k], scale) & 0xFF;
+				inverse[col][k] = mul(inverse[col][k], scale) & 0xFF;
+			}
+			for (int row = 0; row < n; row++) {
+				int factor = matrix[row][col];
+				if (row == col || factor == 0) {
+					continue;
+				}
+				for (int k = 0; k < n; k++) {
+					matrix[row][k] ^= mul(matrix[col][k], factor) & 0xFF;
+					inverse[row][k] ^= mul(inverse[col][k], factor) & 0xFF;
+				}
+			}
+		}
+		return inverse;
+	}
+}
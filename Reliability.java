@@ -0,0 +1,55 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How hard the sender tries to deliver one message. A fully reliable message
+ * is resent until it is acknowledged. A partially reliable one is abandoned
+ * after a number of retransmissions or once it is older than its lifetime:
+ * its segments are no longer resent, and the receiver is told to skip them.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public final class Reliability {
+
+	public static final Reliability RELIABLE = new Reliability(-1, 0);
+
+	final int  maxRetransmissions; // retransmissions allowed per segment, -1 for no limit
+	final long lifetime;           // nanoseconds from send until the message is abandoned, 0 for no limit
+
+	private Reliability(int maxRetransmissions, long lifetime) {
+		this.maxRetransmissions = maxRetransmissions;
+		this.lifetime = lifetime;
+	}
+
+	/**
+	 * @param retransmissions - how many times a segment of the message may be resent, 0 for never
+	 *
+	 * @return - a policy abandoning the message when a segment would be resent once more
+	 */
+	public static Reliability maxRetransmissions(int retransmissions) {
+		return new Reliability(Math.max(0, retransmissions), 0);
+	}
+
+	/**
+	 * @param millis - how long the message is worth delivering, counted from send
+	 *
+	 * @return - a policy abandoning the message once it is older than that
+	 */
+	public static Reliability lifetime(long millis) {
+		return new Reliability(-1, TimeUnit.MILLISECONDS.toNanos(Math.max(1, millis)));
+	}
+
+	public boolean isReliable() {
+		return maxRetransmissions < 0 && lifetime == 0;
+	}
+
+	@Override
+	public String toString() {
+		if (isReliable()) {
+			return "reliable";
+		}
+		return maxRetransmissions >= 0 ? "max " + maxRetransmissions + " retransmissions"
+				: "lifetime " + TimeUnit.NANOSECONDS.toMillis(lifetime) + " ms";
+	}
+}
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routes of UDPNetwork: where a segment goes instead of the destination in
+ * its header. A route matches a connection id or a destination endpoint and
+ * names one or more next hops, resolved when the table is loaded. With mode
+ * all, a segment is copied to every hop, e.g. to replicate a flow to several
+ * receivers; with mode hash, every connection sticks to one of the hops, e.g.
+ * to spread the connections over a pool of receivers. A connection route
+ * wins over an endpoint route. Routes are for segments going to a receiver;
+ * UDPNetwork sends replies to the sender in their header, and keeps a
+ * connection that completed a handshake on the receiver that answered it,
+ * in both modes, since the id it was hashed by changes with the handshake
+ * and only that receiver agreed on its parameters.
+ *
+ * The table is an open-addressing hash of long keys, at most half full, so a
+ * lookup is a multiply and a probe or two without allocating. A slot is free
+ * when it has no route, so every key can be stored, 0.0.0.0:0 included. A
+ * table never changes; reloading builds a new one.
+ *
+ * File format, one route per line, # starts a comment:
+ *   <host:port | conn:hex id>  [all | hash]  <host:port> [<host:port> ...]
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public final class RouteTable {
+
+	public static final RouteTable EMPTY = new RouteTable(new long[0], new Route[0]);
+	private static final long CONNECTION = 1L << 62; // marks the key of a connection route
+
+	private final long[]  _keys;
+	private final Route[] _routes;  // null for a free slot
+	private final int     _mask;
+
+	/**
+	 * The next hops of one route.
+	 */
+	public static final class Route {
+		final InetSocketAddress[] hops;
+		final boolean             hash;  // one hop per connection instead of all of them
+
+		Route(InetSocketAddress[] hops, boolean hash) {
+			this.hops = hops;
+			this.hash = hash;
+		}
+
+		/*
+		 * The hop a connection sticks to in hash mode.
+		 */
+		InetSocketAddress pick(int connId) {
+			return hops[Math.floorMod(connId * 0x9E3779B9, hops.length)];
+		}
+	}
+
+	private RouteTable(long[] keys, Route[] routes) {
+		_keys = keys;
+		_routes = routes;
+		_mask = keys.length - 1;
+	}
+
+	/**
+	 * Reads and resolves a route file.
+	 *
+	 * @param file - the route file
+	 *
+	 * @return - the table
+	 */
+	public static RouteTable load(Path file) throws IOException {
+		List<Long> keys = new ArrayList<>();
+		List<Route> routes = new ArrayList<>();
+		int number = 0;
+		for (String line : Files.readAllLines(file)) {
+			number++;
+			int hash = line.indexOf('#');
+			String[] fields = (hash >= 0 ? line.substring(0, hash) : line).trim().split("\\s+");
+			if (fields[0].isEmpty()) {
+				continue;
+			}
+			int first = 1;
+			boolean hashed = false;
+			if (fields.length > 1 && (fields[1].equals("all") || fields[1].equals("hash"))) {
+				hashed = fields[1].equals("hash");
+				first = 2;
+			}
+			if (fields.length <= first) {
+				throw new IOException(file + ":" + number + ": no next hop");
+			}
+			InetSocketAddress[] hops = new InetSocketAddress[fields.length - first];
+			try {
+				for (int i = first; i < fields.length; i++) {
+					int colon = fields[i].lastIndexOf(':');
+					hops[i - first] = Transport.resolve(fields[i].substring(0, colon),
+							Integer.parseInt(fields[i].substring(colon + 1)));
+				}
+				if (fields[0].startsWith("conn:")) {
+					keys.add(connectionKey(Integer.parseUnsignedInt(fields[0].substring(5), 16)));
+				} else {
+					int colon = fields[0].lastIndexOf(':');
+					keys.add(endpointKey(UDPSegment.ipv4(fields[0].substring(0, colon),
+							Integer.parseInt(fields[0].substring(colon + 1)))));
+				}
+			} catch (NumberFormatException | StringIndexOutOfBoundsException | UnknownHostException ex) {
+				throw new IOException(file + ":" + number + ": " + ex.getMessage(), ex);
+			}
+			routes.add(new Route(hops, hashed));
+		}
+		int capacity = Integer.highestOneBit(Math.max(1, keys.size()) * 2 - 1) << 1;
+		RouteTable table = new RouteTable(new long[capacity], new Route[capacity]);
+		for (int i = 0; i < keys.size(); i++) {
+			table.put(keys.get(i), routes.get(i));
+		}
+		return table;
+	}
+
+	// Add a route while the table is built; a later line for the same key replaces an earlier one
+	private void put(long key, Route route) {
+		int slot = slot(key);
+		while (_routes[slot] != null && _keys[slot] != key) {
+			slot = slot + 1 & _mask;
+		}
+		_keys[slot] = key;
+		_routes[slot] = route;
+	}
+
+	private int slot(long key) {
+		return (int) (key * 0x9E3779B97F4A7C15L >>> 40) & _mask;
+	}
+
+	/**
+	 * Finds the route of a segment.
+	 *
+	 * @param connId - the connection id of the segment
+	 * @param destinationKey - its destination, as UDPSegment.destinationKey
+	 *
+	 * @return - the route, or null to send it to the destination in its header
+	 */
+	public Route lookup(int connId, long destinationKey) {
+		if (_keys.length == 0) {
+			return null;
+		}
+		Route route = find(connectionKey(connId));
+		return route != null ? route : find(destinationKey);
+	}
+
+	/**
+	 * Finds the route of a destination endpoint, for packets without a connection.
+	 *
+	 * @param destinationKey - the destination, as endpointKey
+	 *
+	 * @return - the route, or null to send it to the destination itself
+	 */
+	public Route lookup(long destinationKey) {
+		return _keys.length == 0 ? null : find(destinationKey);
+	}
+
+	private Route find(long key) {
+		for (int slot = slot(key); _routes[slot] != null; slot = slot + 1 & _mask) {
+			if (_keys[slot] == key) {
+				return _routes[slot];
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * The number of routes.
+	 */
+	public int size() {
+		int size = 0;
+		for (Route route : _routes) {
+			if (route != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/*
+	 * The key of a destination endpoint: the same packing as UDPSegment.destinationKey, -1 for IPv6.
+	 */
+	public static long endpointKey(InetSocketAddress address) {
+		byte[] host = address.getAddress().getAddress();
+		if (host.length != 4) {
+			return -1;
+		}
+		long ip = (host[0] & 0xFFL) << 24 | (host[1] & 0xFFL) << 16 | (host[2] & 0xFFL) << 8 | host[3] & 0xFFL;
+		return ip << 16 | address.getPort();
+	}
+
+	private static long connectionKey(int connId) {
+		return CONNECTION | connId & 0xFFFFFFFFL;
+	}
+}
@@ -0,0 +1,1236 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending side of one connection. Messages are queued by producers, cut into
+ * segments and kept in flight up to a fixed window, so many messages are
+ * pipelined instead of waiting for one round trip each. Acknowledgements are
+ * cumulative with selective-ACK blocks; a segment is resent when its
+ * retransmission timer expires or when DUP_THRESHOLD later segments have
+ * been selectively acknowledged (fast retransmit).
+ *
+ * The bytes between the oldest unacknowledged segment and the newest one
+ * never exceed the window the receiver advertised. With a closed window one
+ * segment is still sent as a probe and resent at most every MAX_PROBE
+ * until the receiver reports free space.
+ *
+ * A session can be striped over several stripes, each with its own socket,
+ * source port and network. Segments of the shared sequence space are dealt
+ * round robin over the stripes; the receiver merges them back by connection
+ * id, and acknowledgements arriving on any stripe apply to the whole session.
+ *
+ * Optionally each segment's payload is compressed on its own. Segments that
+ * are too small or do not shrink by at least 1/MIN_SAVING are sent as they
+ * are, and after repeated misses compression is skipped for a growing number
+ * of segments, so incompressible data costs little CPU.
+ *
+ * Optionally every group of K new data segments is followed by M parity
+ * segments (forward error correction), so the receiver can rebuild up to M
+ * lost segments of the group without a retransmission. A group is closed
+ * early when the send queue runs dry. With adaptive redundancy M grows while
+ * segments still have to be retransmitted and shrinks again after
+ * CLEAN_GROUPS groups without any.
+ *
+ * A session carries independent streams that share its window and sequence
+ * numbers. Every data segment also carries its stream and its sequence number
+ * within the stream, so the receiver delivers each stream on its own and a
+ * loss in a bulk stream does not hold up the others. New segments are taken
+ * from the streams with the lowest priority value first; streams of equal
+ * priority take turns, each sending up to its weight in segments per round.
+ * Stream 0 has priority DEFAULT_PRIORITY and weight 1 unless set otherwise.
+ *
+ * Every message has a Reliability. A partially reliable message is abandoned
+ * when a segment of it has used up its retransmissions or the message has
+ * outlived its lifetime: its segments are no longer resent, the rest of it
+ * is not cut, and its future fails with a CancellationException. A SKIP
+ * segment tells the receiver to stop waiting for them. It is resent after
+ * two round trips, at most one RTO, until the receiver's cumulative
+ * acknowledgement passes the abandoned messages.
+ *
+ * queryProgress asks the receiver which chunks of a resumable transfer it
+ * is missing. The QUERY is resent like a SKIP until the PROGRESS reply
+ * arrives, and asked again from where a reply stopped until the whole
+ * bitmap is listed.
+ *
+ * Optionally transmissions are paced: a token bucket spreads each window
+ * over the round trip time and can also hold the session to a hard rate, so
+ * a large window does not overflow the socket buffers of the network.
+ *
+ * After a handshake the session starts with the agreed segment size, window
+ * and checksum algorithm, the receive buffer of the receiver as its peer
+ * window and the round trip time of the handshake as its first sample.
+ *
+ * Optionally the path is probed for the largest segment that gets through
+ * (packetization layer path MTU discovery). The agreed segment size is only
+ * the ceiling: new segments start at no more than DEFAULT_MSS while a binary
+ * search sends PROBE segments padded to the sizes in between. A size counts
+ * as too big once PROBE_ATTEMPTS probes of it in a row went unanswered. The
+ * largest size answered becomes the size of new segments, less the block
+ * header of a parity segment while forward error correction is on, and the
+ * search is repeated after a while, so the session also follows a path that
+ * changes. Segments already in the window keep their size. PROBE and
+ * PROBE_ACK always carry a CRC32C checksum, whatever the connection agreed on.
+ *
+ * The session does no I/O on its own thread: the owner calls poll to transmit
+ * and onSegment for every received segment. Everything one poll transmits is
+ * queued per stripe and handed to the transport as one batch.
+ *
+ * The window is a ring of slots indexed by sequence number, all cut from one
+ * direct buffer allocated with the session, so its off-heap memory is fixed
+ * at window * (HEADER_SIZE + mss) however large the window. A segment is
+ * encoded into its slot once and every retransmission sends the slot as it
+ * is. An acknowledged slot lets go of its message at once and is reused
+ * once the cumulative acknowledgement passes it.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class SenderSession {
+
+	private static final long INITIAL_RTO = TimeUnit.SECONDS.toNanos(1);
+	private static final long MIN_RTO     = TimeUnit.MILLISECONDS.toNanos(200);
+	private static final long MAX_RTO     = TimeUnit.SECONDS.toNanos(60);
+	private static final int  DUP_THRESHOLD = 3; // later segments acknowledged before a segment counts as lost
+	private static final long MAX_PROBE   = TimeUnit.SECONDS.toNanos(1); // longest zero-window probe interval
+	private static final int  INITIAL_PEER_WINDOW = 64 * 1024; // assumed until the first acknowledgement
+	private static final int  PACING_GAIN_PERCENT = 125; // paced a little faster than one window per round trip
+	private static final int  MIN_COMPRESS = 128;  // smallest payload worth compressing
+	private static final int  MIN_SAVING   = 16;   // compressed payload must save 1/MIN_SAVING of its size
+	private static final int  MAX_COMPRESS_SKIP = 64; // most segments sent raw after compression stopped paying
+	private static final int  CLEAN_GROUPS = 8;    // groups without loss before adaptive FEC drops a parity segment
+	private static final long SKIP_MARGIN = TimeUnit.MILLISECONDS.toNanos(5); // allowance for a delayed answer to a SKIP or QUERY
+	private static final int  PROBE_ATTEMPTS = 3;  // unanswered probes of one size before it counts as too big
+	private static final int  PROBE_GRANULARITY = 16; // the search stops when the sizes in question are this close
+	public  static final int  DEFAULT_PRIORITY = 8; // priority of streams not set otherwise; lower goes first
+	public  static final int  MAX_STREAM = 0xFFFF; // highest stream id the header can carry
+
+	private final int               _connId;   // connection id carried in every segment
+	private final Stripe[]          _stripes;  // sockets the segments are dealt over
+	private final InetSocketAddress _dst;      // receiver address written in the header
+	private final int               _mss;      // most payload bytes per segment, the size of every slot
+	private int                     _segmentSize; // largest payload the path carries, at most _mss
+	private int                     _checksum = UDPSegment.CHECKSUM_CRC32C; // algorithm agreed on for this connection
+	private final int               _queueCapacity; // messages each stream may queue
+	private final Map<Integer, Stream> _streams = new ConcurrentHashMap<>(); // streams by id, created on first use
+	private final Segment[]         _window;   // in-flight segments indexed by seq % window
+	private final ByteBuffer        _ring;     // off-heap memory of every slot of _window
+	private volatile Runnable       _wakeup = () -> { };
+
+	private Stream[] _order = new Stream[0]; // _streams by priority, then id
+	private int     _turn;          // position in _order where the round robin continues
+	private int     _sndUna;        // oldest unacknowledged sequence number
+	private int     _sndNxt;        // next sequence number to use
+	private int     _highestSacked; // highest sequence number acknowledged so far
+	private long    _sampleSentAt;  // send time of the newest segment acknowledged by the current ACK
+	private long    _bytesInFlight; // payload bytes from _sndUna to _sndNxt
+	private int     _peerWindow = INITIAL_PEER_WINDOW; // receive window advertised by the receiver
+	private long    _srtt;          // smoothed round trip time
+	private long    _rttvar;        // round trip time variation
+	private long    _rto = INITIAL_RTO;
+	private long    _backedOffAt;   // when the RTO was last doubled; older segments do not double it again
+	private final Pacer _pacer;     // spaces transmissions out, unlimited unless pacing or a rate cap is set
+	private boolean _pacing;        // pace at the window per round trip
+	private long    _rateLimit;     // hard cap in bytes per second, 0 for none
+	private PayloadCodec _codec;    // compresses payloads, null to send them raw
+	private int     _compressMisses; // compression attempts in a row that did not pay
+	private int     _compressSkip;  // segments still to send raw before trying again
+	private FecEncoder _fec;        // builds parity segments, null without forward error correction
+	private int     _fecGroup;      // data segments per parity group
+	private int     _fecParity;     // parity segments per group
+	private boolean _fecAdaptive;   // adjust _fecParity to the loss still seen
+	private ByteBuffer[] _parityDatagrams; // parity segments of the last group
+	private boolean _parityQueued;  // _parityDatagrams are waiting in a stripe batch
+	private int     _parityStripe;  // stripe of the next parity segment
+	private int     _cleanGroups;   // groups sent since the last retransmission
+	private long    _lossMark;      // retransmissions counted when the last group closed
+	private final List<Message> _abandoned = new ArrayList<>(); // abandoned messages the receiver may still wait for
+	private final List<Message> _expired = new ArrayList<>();   // abandoned messages whose futures still have to fail
+	private final ByteBuffer _skip; // the SKIP segment
+	private boolean _skipDirty;     // a message was abandoned since the last SKIP
+	private long    _skipDeadline;  // when the SKIP is resent
+	private final Map<Long, Query> _queries = new HashMap<>(); // progress queries waiting for a reply, by transfer id
+	private final ByteBuffer _query; // the QUERY segment
+	private ByteBuffer _probe;      // the PROBE segment, null without path probing
+	private long    _reprobeNanos;  // time between two searches
+	private boolean _searching;     // a search is under way
+	private int     _probeLow;      // largest payload known to get through
+	private int     _probeHigh;     // largest payload that may still get through
+	private int     _probeSize;     // payload of the probes in flight, 0 for none
+	private int     _probeFirst;    // number of the first probe of _probeSize; any of them answers for it
+	private int     _probeNumber;   // number of the last probe sent
+	private int     _probeLosses;   // probes of _probeSize unanswered so far
+	private long    _probeDeadline; // when the last probe counts as lost, or the next search starts
+
+	// statistics
+	private long _segmentsSent;
+	private long _retransmissions;
+	private long _fastRetransmissions;
+	private long _acksReceived;
+	private long _windowProbes;
+	private long _messagesAcked;
+	private long _pacedWaits;
+	private long _compressedSegments;
+	private long _rawBytes;         // payload bytes given to the codec
+	private long _compressedBytes;  // bytes the codec produced for them, or the raw size when it did not pay
+	private long _compressNanos;    // time spent in the codec
+	private long _paritySent;
+	private long _messagesAbandoned;
+	private long _skipsSent;
+	private long _probesSent;
+
+	// A message handed to send and the future completed when all of it is acknowledged
+	private static final class Message {
+		final ByteBuffer                data;
+		final Reliability               reliability;
+		final Stream                    stream;
+		final long                      queuedAt = System.nanoTime(); // start of its lifetime
+		final CompletableFuture<Void>   done = new CompletableFuture<>();
+		int                             unacked; // segments sent but not acknowledged
+		boolean                         cut;     // all segments created
+		boolean                         abandoned;
+		int                             firstStreamSeq; // stream sequence numbers [first, end) of its segments
+		int                             endStreamSeq;
+		int                             firstSeq; // sequence numbers of its first and last segment so far
+		int                             lastSeq;
+
+		Message(ByteBuffer data, Reliability reliability, Stream stream) {
+			this.data = data;
+			this.reliability = reliability;
+			this.stream = stream;
+		}
+
+		boolean expired(long now) {
+			return reliability.lifetime > 0 && now - queuedAt - reliability.lifetime >= 0;
+		}
+	}
+
+	// A progress query: the missing ranges listed so far and where the next reply starts
+	private static final class Query {
+		final long                    transferId;
+		final CompletableFuture<int[]> done = new CompletableFuture<>();
+		final List<int[]>             missing = new ArrayList<>();
+		int                           from;
+		long                          deadline; // when the QUERY is sent again
+
+		Query(long transferId) {
+			this.transferId = transferId;
+		}
+	}
+
+	// One stream: its own queue of messages and its own sequence numbers
+	private static final class Stream {
+		final int                           id;
+		final ArrayBlockingQueue<Message>   queue; // bounded, so producers block when full
+		Message                             current; // message being cut into segments
+		int                                 offset;  // bytes of current already cut
+		int                                 nextSeq; // stream sequence number of the next new segment
+		int                                 priority = DEFAULT_PRIORITY;
+		int                                 weight = 1; // segments per round among streams of equal priority
+		int                                 credit;  // segments left in this round
+		long                                segmentsSent;
+
+		Stream(int id, int queueCapacity) {
+			this.id = id;
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		}
+
+		// Make sure current has a segment left to cut, taking the next queued message if needed
+		boolean nextChunk() {
+			if (current != null && !current.cut) {
+				return true;
+			}
+			current = queue.poll();
+			offset = 0;
+			return current != null;
+		}
+	}
+
+	/**
+	 * One socket of a session: where its segments come from and which network they go through.
+	 */
+	public static final class Stripe {
+		final Transport         transport;
+		final InetSocketAddress src;      // sender address written in the header
+		final SocketAddress     nextHop;  // where datagrams are sent (the network)
+		long                    segmentsSent;
+		ByteBuffer[]            batch;    // datagrams queued by the current poll
+		int                     batched;
+
+		/**
+		 * @param transport - the transport used to send datagrams
+		 * @param src - the address of this sender on the transport
+		 * @param nextHop - the address datagrams are sent to
+		 */
+		public Stripe(Transport transport, InetSocketAddress src, SocketAddress nextHop) {
+			this.transport = transport;
+			this.src = src;
+			this.nextHop = nextHop;
+		}
+	}
+
+	// One segment in flight
+	private static final class Segment {
+		final ByteBuffer datagram;
+		Stripe           stripe;
+		Message          message;
+		int              seq;
+		int              length;    // payload bytes
+		long             sentAt;
+		long             deadline;
+		int              transmissions;
+		boolean          acked;
+		boolean          lost;      // detected lost from selective acknowledgements
+		boolean          abandoned; // its message was abandoned: never resent
+
+		Segment(ByteBuffer slot) {
+			datagram = slot;
+		}
+	}
+
+	/**
+	 * Constructs a sender session.
+	 *
+	 * @param connId - connection id carried in every segment
+	 * @param stripes - the sockets segments are sent from, at least one
+	 * @param dst - the address of the receiver
+	 * @param window - the maximum number of segments in flight
+	 * @param queueCapacity - the maximum number of messages waiting to be sent
+	 */
+	public SenderSession(int connId, Stripe[] stripes, InetSocketAddress dst, int window, int queueCapacity) {
+		this(connId, stripes, dst, window, queueCapacity, UDPSegment.DEFAULT_MSS);
+	}
+
+	/**
+	 * Constructs a sender session with the segment size agreed on in a handshake.
+	 *
+	 * @param connId - connection id carried in every segment
+	 * @param stripes - the sockets segments are sent from, at least one
+	 * @param dst - the address of the receiver
+	 * @param window - the maximum number of segments in flight
+	 * @param queueCapacity - the maximum number of messages waiting to be sent
+	 * @param mss - payload bytes per data segment
+	 */
+	public SenderSession(int connId, Stripe[] stripes, InetSocketAddress dst, int window, int queueCapacity,
+						 int mss) {
+		_connId = connId;
+		_stripes = stripes;
+		_dst = dst;
+		_mss = mss;
+		_segmentSize = mss;
+		_queueCapacity = queueCapacity;
+		int slotSize = UDPSegment.HEADER_SIZE + _mss;
+		_ring = ByteBuffer.allocateDirect(window * slotSize);
+		_window = new Segment[window];
+		for (int i = 0; i < window; i++) {
+			_window[i] = new Segment(_ring.slice(i * slotSize, slotSize));
+		}
+		for (Stripe stripe : stripes) {
+			stripe.batch = new ByteBuffer[window + ReedSolomon.MAX_PARITY + 1];  // a poll sends each segment at most once
+		}
+		_pacer = new Pacer(2 * (UDPSegment.HEADER_SIZE + _mss));
+		_skip = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE + _mss);
+		_query = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE + 16);
+		_backedOffAt = System.nanoTime();
+	}
+
+	/**
+	 * Starts with what a handshake found out instead of the defaults.
+	 *
+	 * @param checksum - the UDPSegment.CHECKSUM_ algorithm of every segment
+	 * @param peerWindow - the receive buffer of the receiver in bytes
+	 * @param rtt - the round trip time of the handshake in nanoseconds, 0 if unknown
+	 */
+	public synchronized void setNegotiated(int checksum, int peerWindow, long rtt) {
+		_checksum = checksum;
+		_peerWindow = peerWindow;
+		if (rtt > 0) {
+			sampleRtt(rtt);
+			updatePacingRate();
+		}
+	}
+
+	/**
+	 * Probes the path for the largest segment that gets through, up to the
+	 * segment size of the session, and again every reprobeNanos.
+	 *
+	 * @param reprobeNanos - time between the end of a search and the next one
+	 */
+	public synchronized void setPathProbing(long reprobeNanos) {
+		_probe = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE + _mss);
+		_reprobeNanos = reprobeNanos;
+		_segmentSize = Math.min(_mss, UDPSegment.DEFAULT_MSS);
+		_probeDeadline = System.nanoTime();
+		_wakeup.run();
+	}
+
+	/*
+	 * Get the payload bytes of new segments: the path probing result, or the size the session was built with.
+	 */
+	public synchronized int getSegmentSize() {
+		return dataPayload();
+	}
+
+	/*
+	 * Set the action run when the session has work for poll, e.g. unparking the I/O thread.
+	 */
+	public void setWakeup(Runnable wakeup) {
+		_wakeup = wakeup;
+	}
+
+	public int getConnectionId() {
+		return _connId;
+	}
+
+	/**
+	 * Spreads each window evenly over the smoothed round trip time instead of
+	 * sending it back to back. Until the first round trip is measured the
+	 * window goes out unpaced.
+	 *
+	 * @param pacing - true to pace transmissions
+	 */
+	public synchronized void setPacing(boolean pacing) {
+		_pacing = pacing;
+		updatePacingRate();
+	}
+
+	/**
+	 * Compresses the payload of every segment worth compressing.
+	 *
+	 * @param codec - the codec, null to send payloads raw
+	 */
+	public synchronized void setCompression(PayloadCodec codec) {
+		_codec = codec;
+	}
+
+	/**
+	 * Sends parity segments after every group of new data segments.
+	 *
+	 * @param groupSize - data segments per group, 0 to turn forward error correction off
+	 * @param parity - parity segments per group, 1 for XOR parity, more for Reed-Solomon
+	 * @param adaptive - whether to adjust the parity count to the loss still seen
+	 */
+	public synchronized void setFec(int groupSize, int parity, boolean adaptive) {
+		if (groupSize <= 0 || parity <= 0) {
+			_fec = null;
+			return;
+		}
+		_fecGroup = Math.min(groupSize, ReedSolomon.MAX_DATA);
+		_fecParity = Math.min(parity, ReedSolomon.MAX_PARITY);
+		_fecAdaptive = adaptive;
+		if (_fec == null) {
+			_fec = new FecEncoder(_mss);
+			_parityDatagrams = new ByteBuffer[ReedSolomon.MAX_PARITY];
+			for (int i = 0; i < _parityDatagrams.length; i++) {
+				_parityDatagrams[i] = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE + FecEncoder.BLOCK_HEADER + _mss);
+			}
+		}
+	}
+
+	/**
+	 * Caps the sending rate of the whole session, retransmissions included.
+	 *
+	 * @param bytesPerSecond - the highest rate in datagram bytes per second, 0 for no cap
+	 */
+	public synchronized void setRateLimit(long bytesPerSecond) {
+		_rateLimit = bytesPerSecond;
+		updatePacingRate();
+	}
+
+	/**
+	 * Sets how a stream is scheduled against the others.
+	 *
+	 * @param stream - the stream id
+	 * @param priority - lower values are sent first, whenever they have data
+	 * @param weight - segments per round among streams of the same priority, at least 1
+	 */
+	public synchronized void setStreamPriority(int stream, int priority, int weight) {
+		Stream st = stream(stream);
+		st.priority = priority;
+		st.weight = Math.max(1, weight);
+		_order = new Stream[0];  // sort again on the next poll
+	}
+
+	/**
+	 * Queues a message on stream 0. Blocks while the stream's queue is full.
+	 *
+	 * @param message - the bytes to send, from position to limit
+	 *
+	 * @return a future completed when the receiver acknowledged the whole message
+	 */
+	public CompletableFuture<Void> send(ByteBuffer message) throws InterruptedException {
+		return send(0, message);
+	}
+
+	/**
+	 * Queues a message on a stream. Blocks while the stream's queue is full.
+	 * Messages of one stream are delivered in order; messages of different
+	 * streams are independent.
+	 *
+	 * @param stream - the stream id, from 0 to MAX_STREAM
+	 * @param message - the bytes to send, from position to limit
+	 *
+	 * @return a future completed when the receiver acknowledged the whole message
+	 */
+	public CompletableFuture<Void> send(int stream, ByteBuffer message) throws InterruptedException {
+		return send(stream, message, Reliability.RELIABLE);
+	}
+
+	/**
+	 * Queues a message on a stream with a reliability policy. Blocks while the
+	 * stream's queue is full; the lifetime counts from this call.
+	 *
+	 * @param stream - the stream id, from 0 to MAX_STREAM
+	 * @param message - the bytes to send, from position to limit
+	 * @param reliability - when to give up on the message
+	 *
+	 * @return a future completed when the receiver acknowledged the whole message,
+	 *         or failed with a CancellationException when the message was abandoned
+	 */
+	public CompletableFuture<Void> send(int stream, ByteBuffer message, Reliability reliability)
+			throws InterruptedException {
+		Stream st = stream(stream);
+		Message msg = new Message(message.slice(), reliability, st);
+		st.queue.put(msg);
+		_wakeup.run();
+		return msg.done;
+	}
+
+	/**
+	 * Queues a message on stream 0 unless its queue is full. Never blocks, so
+	 * a caller that must keep a schedule, e.g. an open loop load generator,
+	 * can count the message as rejected instead of falling behind.
+	 *
+	 * @param message - the bytes to send, from position to limit
+	 *
+	 * @return a future completed when the receiver acknowledged the whole message,
+	 *         or null when the queue was full and nothing was queued
+	 */
+	public CompletableFuture<Void> trySend(ByteBuffer message) {
+		Stream st = stream(0);
+		Message msg = new Message(message.slice(), Reliability.RELIABLE, st);
+		if (!st.queue.offer(msg)) {
+			return null;
+		}
+		_wakeup.run();
+		return msg.done;
+	}
+
+	/**
+	 * Asks the receiver which chunks of a resumable transfer it still misses.
+	 * The query is repeated until it is answered or the future is completed
+	 * by the caller, e.g. with orTimeout.
+	 *
+	 * @param transferId - the transfer
+	 *
+	 * @return a future with the missing chunks as [start, end) pairs, or null
+	 *         if the receiver has no record of the transfer
+	 */
+	public synchronized CompletableFuture<int[]> queryProgress(long transferId) {
+		Query query = _queries.get(transferId);
+		if (query == null) {
+			query = new Query(transferId);
+			query.deadline = System.nanoTime();
+			_queries.put(transferId, query);
+			_wakeup.run();
+		}
+		return query.done;
+	}
+
+	// The stream with an id, created with the default priority on first use
+	private Stream stream(int id) {
+		if (id < 0 || id > MAX_STREAM) {
+			throw new IllegalArgumentException("stream id out of range: " + id);
+		}
+		return _streams.computeIfAbsent(id, key -> new Stream(key, _queueCapacity));
+	}
+
+	/**
+	 * Transmits new segments while the window has room and resends the ones that timed out.
+	 *
+	 * @param now - the current System.nanoTime
+	 *
+	 * @return nanoseconds until poll needs to run again, or Long.MAX_VALUE if nothing is in flight
+	 */
+	public long poll(long now) throws IOException {
+		long next;
+		List<Message> expired = null;
+		synchronized (this) {
+			next = transmitAll(now);
+			if (!_expired.isEmpty()) {
+				expired = new ArrayList<>(_expired);
+				_expired.clear();
+			}
+		}
+		// Fail abandoned messages outside the lock so callbacks may send again
+		if (expired != null) {
+			for (Message msg : expired) {
+				msg.done.completeExceptionally(new CancellationException("message abandoned: " + msg.reliability));
+			}
+		}
+		return next;
+	}
+
+	private long transmitAll(long now) throws IOException {
+		long next = Long.MAX_VALUE;
+		long pace = 0;
+
+		// Retransmit expired segments, unless their message is not worth it any more
+		for (int seq = _sndUna; seq != _sndNxt; seq++) {
+			Segment segment = slot(seq);
+			if (segment.acked || segment.abandoned) {
+				continue;
+			}
+			boolean due = segment.lost || now - segment.deadline >= 0;
+			if (segment.message.expired(now) || due && outOfRetransmissions(segment)) {
+				abandon(segment.message);  // free its place in the window now rather than at its next timeout
+				continue;
+			}
+			if (due) {
+				pace = _pacer.delay(now);
+				if (pace > 0) {
+					_pacedWaits++;
+					break;
+				}
+			}
+			if (segment.lost) {
+				_fastRetransmissions++;
+				segment.lost = false;
+				transmit(segment, now);
+			} else if (now - segment.deadline >= 0) {
+				_retransmissions++;
+				if (segment.sentAt - _backedOffAt >= 0) {
+					_rto = Math.min(_rto * 2, MAX_RTO);  // back off once per expiry
+					_backedOffAt = now;
+				}
+				transmit(segment, now);
+			}
+			next = Math.min(next, segment.deadline - now);
+		}
+		if (!_abandoned.isEmpty()) {
+			if (_skipDirty || now - _skipDeadline >= 0) {
+				sendSkip(now);
+			}
+			next = Math.min(next, _skipDeadline - now);
+		}
+		for (Iterator<Query> it = _queries.values().iterator(); it.hasNext(); ) {
+			Query query = it.next();
+			if (query.done.isDone()) {
+				it.remove();  // given up by the caller
+				continue;
+			}
+			if (now - query.deadline >= 0) {
+				sendQuery(query, now);
+			}
+			next = Math.min(next, query.deadline - now);
+		}
+		if (_probe != null) {
+			if (now - _probeDeadline >= 0) {
+				probe(now);
+			}
+			next = Math.min(next, _probeDeadline - now);
+		}
+
+		// Fill the window with new segments
+		Stream st;
+		while (pace == 0 && _sndNxt - _sndUna < _window.length && (st = nextStream()) != null) {
+			pace = _pacer.delay(now);
+			if (pace > 0) {
+				_pacedWaits++;
+				break;
+			}
+			Message msg = st.current;
+			if (msg.expired(now)) {
+				abandon(msg);
+				continue;
+			}
+			int length = Math.min(dataPayload(), msg.data.limit() - st.offset);
+			if (_bytesInFlight + length > _peerWindow) {
+				if (_bytesInFlight > 0) {
+					break;  // wait for the receiver to free space
+				}
+				_windowProbes++;  // closed window and nothing in flight: probe with one segment
+			}
+			Segment segment = slot(_sndNxt);
+			segment.stripe = _stripes[Math.floorMod(_sndNxt, _stripes.length)];
+			segment.seq = _sndNxt++;
+			segment.length = length;
+			_bytesInFlight += length;
+			segment.message = msg;
+			segment.acked = false;
+			segment.lost = false;
+			segment.abandoned = false;
+			segment.transmissions = 0;
+			if (st.offset == 0) {
+				_compressSkip = 0;  // a new message may compress differently
+				msg.firstStreamSeq = st.nextSeq;
+				msg.firstSeq = segment.seq;
+			}
+			st.offset += length;
+			st.credit--;
+			st.segmentsSent++;
+			msg.unacked++;
+			msg.cut = st.offset == msg.data.limit();
+			byte flags = msg.cut ? UDPSegment.FLAG_FIN : 0;
+			if (msg.firstStreamSeq == st.nextSeq) {
+				flags |= UDPSegment.FLAG_START;
+			}
+			if (_fec != null) {
+				flags |= UDPSegment.FLAG_FEC;
+			}
+			UDPSegment.writeHeader(segment.datagram, UDPSegment.TYPE_DATA, flags, _connId, segment.stripe.src, _dst, segment.seq, 0);
+			UDPSegment.setStream(segment.datagram, st.id, st.nextSeq++);
+			msg.endStreamSeq = st.nextSeq;
+			msg.lastSeq = segment.seq;
+			writePayload(segment.datagram, msg.data.slice(st.offset - length, length));
+			if (_fec != null) {
+				_fec.add(segment.seq, UDPSegment.flags(segment.datagram), segment.datagram, _fecParity);
+			}
+			UDPSegment.seal(segment.datagram, _checksum);
+			transmit(segment, now);
+			next = Math.min(next, segment.deadline - now);
+			if (_fec != null && _fec.count() >= _fecGroup) {
+				sendParity(now);
+			}
+		}
+		if (_fec != null && _fec.count() > 0 && nextStream() == null) {
+			sendParity(now);  // nothing more to send: close the group now
+		}
+		flush();
+		return pace > 0 ? Math.min(pace, next) : next;
+	}
+
+	// Whether a segment due for retransmission may not be resent any more
+	private static boolean outOfRetransmissions(Segment segment) {
+		int max = segment.message.reliability.maxRetransmissions;
+		return max >= 0 && segment.transmissions > max;
+	}
+
+	// Stop sending a message: resend none of its segments, cut no more of it and tell the receiver
+	private void abandon(Message msg) {
+		msg.abandoned = true;
+		msg.cut = true;
+		_messagesAbandoned++;
+		_expired.add(msg);
+		if (msg.firstStreamSeq == msg.endStreamSeq) {
+			return;  // nothing of it was sent
+		}
+		for (int seq = _sndUna; seq != _sndNxt; seq++) {
+			Segment segment = slot(seq);
+			if (segment.message == msg && !segment.acked) {
+				segment.abandoned = true;
+				segment.lost = false;
+			}
+		}
+		_abandoned.add(msg);
+		_skipDirty = true;
+	}
+
+	// Queue a SKIP segment: the point up to which everything is received or abandoned, and the abandoned messages
+	private void sendSkip(long now) {
+		// A SKIP is no larger than a data segment, so it gets through the probed path. Messages whose ranges
+		// do not fit go in a later SKIP; skipTo must stop at their first segment, or the receiver would drop
+		// their segments without knowing to skip them in their streams. The oldest are listed first, so the
+		// cumulative acknowledgement passes them and makes room for the rest.
+		int fits = Math.min(_abandoned.size(), dataPayload() / UDPSegment.SKIP_RANGE_SIZE);
+		if (fits < _abandoned.size()) {
+			_abandoned.sort(Comparator.comparingInt(msg -> msg.firstSeq - _sndUna));
+		}
+		Set<Message> unlisted = fits == _abandoned.size() ? Collections.emptySet()
+				: new HashSet<>(_abandoned.subList(fits, _abandoned.size()));
+		int skipTo = _sndUna;
+		while (skipTo != _sndNxt && (slot(skipTo).acked
+				|| slot(skipTo).abandoned && !unlisted.contains(slot(skipTo).message))) {
+			skipTo++;
+		}
+		Stripe stripe = _stripes[0];
+		UDPSegment.writeHeader(_skip, UDPSegment.TYPE_SKIP, (byte) 0, _connId, stripe.src, _dst, skipTo, 0);
+		for (Message msg : _abandoned.subList(0, fits)) {
+			_skip.putShort((short) msg.stream.id);
+			_skip.putInt(msg.firstStreamSeq);
+			_skip.putInt(msg.endStreamSeq);
+		}
+		UDPSegment.seal(_skip, _checksum);
+		_pacer.consume(now, _skip.limit());
+		stripe.batch[stripe.batched++] = _skip;
+		_skipDirty = false;
+		_skipDeadline = now + replyTimeout();
+		_skipsSent++;
+	}
+
+	// Send a QUERY for the ranges from where the last reply stopped
+	private void sendQuery(Query query, long now) throws IOException {
+		Stripe stripe = _stripes[0];
+		UDPSegment.writeHeader(_query, UDPSegment.TYPE_QUERY, (byte) 0, _connId, stripe.src, _dst, 0, 0);
+		_query.putLong(query.transferId);
+		_query.putInt(query.from);
+		_query.putInt(dataPayload());  // the PROGRESS reply must get through the probed path as well
+		UDPSegment.seal(_query, _checksum);
+		stripe.transport.send(_query, stripe.nextHop);  // rare, so not worth a place in the batch
+		query.deadline = now + replyTimeout();
+	}
+
+	/**
+	 * Moves the path search on when its timer expires: starts a search, counts
+	 * an unanswered probe, and sends the next probe or settles on a size.
+	 *
+	 * @param now - the current System.nanoTime
+	 */
+	private void probe(long now) throws IOException {
+		if (!_searching) {
+			_searching = true;
+			_probeLow = Math.min(_mss, Handshake.MIN_MSS);  // the handshake got through, so this will
+			_probeHigh = _mss;
+			_probeSize = 0;
+		} else if (_probeSize != 0 && ++_probeLosses >= PROBE_ATTEMPTS) {
+			_probeHigh = _probeSize - 1;  // never answered: too big
+			_probeSize = 0;
+		}
+		if (_probeSize == 0) {
+			if (_probeHigh - _probeLow < PROBE_GRANULARITY) {
+				_segmentSize = _probeLow;
+				_searching = false;
+				_probeDeadline = now + _reprobeNanos;
+				return;
+			}
+			_probeSize = (_probeLow + _probeHigh + 1) / 2;
+			_probeFirst = _probeNumber + 1;
+			_probeLosses = 0;
+		}
+		Stripe stripe = _stripes[0];
+		UDPSegment.writeHeader(_probe, UDPSegment.TYPE_PROBE, (byte) 0, _connId, stripe.src, _dst, ++_probeNumber, 0);
+		_probe.position(UDPSegment.HEADER_SIZE + _probeSize);  // padding: whatever the buffer holds
+		UDPSegment.seal(_probe);  // CRC32C like the handshake: the receiver may answer before the session exists
+		stripe.transport.send(_probe, stripe.nextHop);  // rare, so not worth a place in the batch
+		_probeDeadline = now + replyTimeout();
+		_probesSent++;
+	}
+
+	// A probe got through: its size is safe, probe the next one at once
+	private synchronized void onProbeAck(int number, long now) {
+		if (_probeSize == 0 || number - _probeFirst < 0 || number - _probeNumber > 0) {
+			return;  // an answer to a size already settled
+		}
+		_probeLow = _probeSize;
+		_probeSize = 0;
+		_probeDeadline = now;
+		_wakeup.run();
+	}
+
+	// Payload bytes of a data segment: a parity segment adds a block header to the longest, and must fit the path too
+	private int dataPayload() {
+		return _fec != null && _probe != null ? _segmentSize - FecEncoder.BLOCK_HEADER : _segmentSize;
+	}
+
+	// How long a control segment may wait for its answer before it is sent again
+	private long replyTimeout() {
+		return _srtt == 0 ? _rto : Math.min(_rto, 2 * _srtt + SKIP_MARGIN);
+	}
+
+	// Queue the parity segments of the current group and start the next group
+	private void sendParity(long now) throws IOException {
+		if (_parityQueued) {
+			flush();  // the previous group's parity still sits in the batches
+		}
+		int parity = _fec.parity();
+		for (int i = 0; i < parity; i++) {
+			ByteBuffer datagram = _parityDatagrams[i];
+			Stripe stripe = _stripes[Math.floorMod(_parityStripe++, _stripes.length)];
+			UDPSegment.writeHeader(datagram, UDPSegment.TYPE_PARITY, (byte) 0, _connId, stripe.src, _dst,
+					_fec.base(), UDPSegment.parityField(_fec.count(), parity, i));
+			_fec.writeParity(i, datagram);
+			UDPSegment.seal(datagram, _checksum);
+			_pacer.consume(now, datagram.limit());
+			stripe.batch[stripe.batched++] = datagram;
+			_paritySent++;
+		}
+		_parityQueued = true;
+		_fec.reset();
+		adaptRedundancy();
+	}
+
+	// More parity while segments are still lost despite it, less after a run of clean groups
+	private void adaptRedundancy() {
+		if (!_fecAdaptive) {
+			return;
+		}
+		long losses = _retransmissions + _fastRetransmissions;
+		if (losses > _lossMark) {
+			_fecParity = Math.min(_fecParity + 1, Math.min(ReedSolomon.MAX_PARITY, _fecGroup));
+			_cleanGroups = 0;
+		} else if (++_cleanGroups >= CLEAN_GROUPS && _fecParity > 1) {
+			_fecParity--;
+			_cleanGroups = 0;
+		}
+		_lossMark = losses;
+	}
+
+	// Hand the datagrams queued by this poll to the transports
+	private void flush() throws IOException {
+		_parityQueued = false;
+		for (Stripe stripe : _stripes) {
+			if (stripe.batched > 0) {
+				int count = stripe.batched;
+				stripe.batched = 0;
+				stripe.transport.sendBatch(stripe.batch, count, stripe.nextHop);
+			}
+		}
+	}
+
+	// Put a payload after the header, compressed when that pays off
+	private void writePayload(ByteBuffer datagram, ByteBuffer payload) {
+		int length = payload.remaining();
+		if (_codec == null || length < MIN_COMPRESS) {
+			datagram.put(payload);
+			return;
+		}
+		if (_compressSkip > 0) {
+			_compressSkip--;
+			datagram.put(payload);
+			return;
+		}
+		long start = System.nanoTime();
+		datagram.limit(datagram.position() + length - length / MIN_SAVING);
+		int compressed = _codec.compress(payload, datagram);
+		datagram.limit(datagram.capacity());
+		_compressNanos += System.nanoTime() - start;
+		_rawBytes += length;
+		if (compressed >= 0) {
+			_compressedSegments++;
+			_compressedBytes += compressed;
+			_compressMisses = 0;
+			UDPSegment.addFlag(datagram, UDPSegment.FLAG_COMPRESSED);
+		} else {
+			_compressedBytes += length;
+			_compressMisses++;
+			_compressSkip = Math.min(MAX_COMPRESS_SKIP, 1 << Math.min(_compressMisses, 6)) - 1;
+			datagram.put(payload.rewind());
+		}
+	}
+
+	/*
+	 * The stream the next new segment comes from: among the streams with data,
+	 * those of the lowest priority value, taking turns by weight. Null if no
+	 * stream has data. Credit is only spent when the segment is actually cut.
+	 */
+	private Stream nextStream() {
+		if (_order.length != _streams.size()) {
+			_order = _streams.values().toArray(new Stream[0]);
+			Arrays.sort(_order, Comparator.comparingInt((Stream st) -> st.priority).thenComparingInt(st -> st.id));
+			_turn = 0;
+		}
+		int n = _order.length;
+		int priority = Integer.MAX_VALUE;
+		for (Stream st : _order) {
+			if (st.priority < priority && st.nextChunk()) {
+				priority = st.priority;
+			}
+		}
+		if (priority == Integer.MAX_VALUE) {
+			return null;
+		}
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < n; i++) {
+				Stream st = _order[(_turn + i) % n];
+				if (st.priority == priority && st.credit > 0 && st.nextChunk()) {
+					_turn = (_turn + i) % n;
+					return st;
+				}
+			}
+			// Everyone with data at this priority spent its credit: start a new round
+			for (Stream st : _order) {
+				if (st.priority == priority) {
+					st.credit = st.weight;
+				}
+			}
+			_turn = (_turn + 1) % n;
+		}
+		return null;
+	}
+
+	// Queue a segment on its stripe and arm its retransmission timer
+	private void transmit(Segment segment, long now) {
+		segment.datagram.rewind();
+		_pacer.consume(now, segment.datagram.limit());
+		Stripe stripe = segment.stripe;
+		stripe.batch[stripe.batched++] = segment.datagram;
+		stripe.segmentsSent++;
+		segment.sentAt = now;
+		segment.deadline = now + (_peerWindow < _mss ? Math.min(_rto, MAX_PROBE) : _rto);
+		segment.transmissions++;
+		_segmentsSent++;
+	}
+
+	/**
+	 * Handles a segment received from the network.
+	 *
+	 * @param buf - the datagram, from 0 to limit
+	 * @param now - the current System.nanoTime
+	 */
+	public void onSegment(ByteBuffer buf, long now) {
+		// A PROBE_ACK is sealed with CRC32C whatever the connection agreed on, as is the PROBE it answers
+		int checksum = UDPSegment.type(buf) == UDPSegment.TYPE_PROBE_ACK ? UDPSegment.CHECKSUM_CRC32C : _checksum;
+		if (!UDPSegment.verify(buf, checksum) || UDPSegment.connectionId(buf) != _connId) {
+			return;
+		}
+		if (UDPSegment.type(buf) == UDPSegment.TYPE_PROGRESS) {
+			onProgress(buf);
+			return;
+		}
+		if (UDPSegment.type(buf) == UDPSegment.TYPE_PROBE_ACK) {
+			onProbeAck(UDPSegment.acknowledgement(buf), now);
+			return;
+		}
+		if (UDPSegment.type(buf) != UDPSegment.TYPE_ACK) {
+			return;
+		}
+		List<Message> completed = new ArrayList<>();
+		synchronized (this) {
+			_acksReceived++;
+			_sampleSentAt = 0;
+
+			// Everything before the cumulative acknowledgement has arrived
+			int cumulative = UDPSegment.acknowledgement(buf);
+			if (cumulative - _sndNxt > 0) {
+				cumulative = _sndNxt;
+			}
+			if (cumulative - _sndUna >= 0) {
+				updateWindow(UDPSegment.window(buf));  // ignore the window of reordered, older ACKs
+			}
+			for (int seq = _sndUna; seq - cumulative < 0; seq++) {
+				acknowledge(seq, now, completed);
+			}
+			if (!_abandoned.isEmpty()) {
+				final int received = cumulative;
+				_abandoned.removeIf(msg -> received - msg.lastSeq > 0);  // the receiver has skipped it
+			}
+
+			// Selective acknowledgement blocks: [start, end) pairs
+			ByteBuffer blocks = UDPSegment.payload(buf);
+			while (blocks.remaining() >= 8) {
+				int start = blocks.getInt();
+				int end = blocks.getInt();
+				if (start - _sndUna < 0) {
+					start = _sndUna;
+				}
+				if (end - _sndNxt > 0) {
+					end = _sndNxt;
+				}
+				for (int seq = start; seq - end < 0; seq++) {
+					acknowledge(seq, now, completed);
+				}
+			}
+			if (_sampleSentAt != 0) {
+				sampleRtt(now - _sampleSentAt);  // one sample per ACK, from the newest segment
+			}
+			updatePacingRate();
+			detectLosses();
+			while (_sndUna != _sndNxt && slot(_sndUna).acked) {
+				_bytesInFlight -= slot(_sndUna).length;
+				_sndUna++;
+			}
+		}
+		// Complete outside the lock so callbacks may send again
+		for (Message msg : completed) {
+			msg.done.complete(null);
+		}
+		_wakeup.run();
+	}
+
+	// Take a PROGRESS reply: keep its ranges, then ask for the rest or complete the query
+	private void onProgress(ByteBuffer buf) {
+		ByteBuffer payload = UDPSegment.payload(buf);
+		if (payload.remaining() < 20) {
+			return;
+		}
+		long transferId = payload.getLong();
+		int chunks = payload.getInt();
+		int from = payload.getInt();
+		int next = payload.getInt();
+		int[] result = null;
+		Query query;
+		synchronized (this) {
+			query = _queries.get(transferId);
+			if (query == null || from != query.from) {
+				return;  // a duplicate reply
+			}
+			while (payload.remaining() >= 8) {
+				query.missing.add(new int[] { payload.getInt(), payload.getInt() });
+			}
+			if (chunks > 0 && next - from > 0 && next < chunks) {
+				query.from = next;
+				query.deadline = System.nanoTime();  // ask for the next part at once
+				_wakeup.run();
+				return;
+			}
+			_queries.remove(transferId);
+			if (chunks > 0) {
+				result = new int[2 * query.missing.size()];
+				for (int i = 0; i < query.missing.size(); i++) {
+					result[2 * i] = query.missing.get(i)[0];
+					result[2 * i + 1] = query.missing.get(i)[1];
+				}
+			}
+		}
+		query.done.complete(result);  // outside the lock so callbacks may send again
+	}
+
+	// Mark one segment of the window acknowledged
+	private void acknowledge(int seq, long now, List<Message> completed) {
+		Segment segment = slot(seq);
+		if (segment.acked) {
+			return;
+		}
+		segment.acked = true;
+		segment.lost = false;
+		if (seq - _highestSacked > 0 || _highestSacked - _sndUna < 0) {
+			_highestSacked = seq;
+		}
+		if (segment.transmissions == 1 && (_sampleSentAt == 0 || segment.sentAt - _sampleSentAt > 0)) {
+			_sampleSentAt = segment.sentAt;  // Karn: only unambiguous samples
+		}
+		Message msg = segment.message;
+		segment.message = null;
+		if (--msg.unacked == 0 && msg.cut && !msg.abandoned) {
+			_messagesAcked++;
+			completed.add(msg);
+		}
+	}
+
+	// Take a new receive window; resend a dropped probe at once when a closed window opens
+	private void updateWindow(int window) {
+		boolean opened = _peerWindow < _mss && window >= _mss;
+		_peerWindow = window;
+		if (opened && _sndUna != _sndNxt && !slot(_sndUna).acked) {
+			slot(_sndUna).lost = true;
+		}
+	}
+
+	// Mark segments lost once enough later segments were acknowledged; each is resent once per transmission
+	private void detectLosses() {
+		int threshold = DUP_THRESHOLD * _stripes.length;  // stripes reorder segments among each other
+		if (_fec != null) {
+			threshold += _fecGroup;  // give the parity of the group a chance to rebuild it first
+		}
+		for (int seq = _sndUna; _highestSacked - seq >= threshold; seq++) {
+			Segment segment = slot(seq);
+			if (!segment.acked && !segment.lost && !segment.abandoned && segment.sentAt - slot(_highestSacked).sentAt <= 0) {
+				segment.lost = true;
+			}
+		}
+	}
+
+	// Update the retransmission time out (Jacobson/Karels)
+	private void sampleRtt(long rtt) {
+		if (_srtt == 0) {
+			_srtt = rtt;
+			_rttvar = rtt / 2;
+		} else {
+			_rttvar = (3 * _rttvar + Math.abs(_srtt - rtt)) / 4;
+			_srtt = (7 * _srtt + rtt) / 8;
+		}
+		_rto = Math.max(MIN_RTO, Math.min(MAX_RTO, _srtt + 4 * _rttvar));
+	}
+
+	// Rate = PACING_GAIN x the usable window per smoothed round trip, never above the cap
+	private void updatePacingRate() {
+		long rate = 0;
+		if (_pacing && _srtt > 0) {
+			long window = Math.min((long) _window.length * dataPayload(), Math.max(_peerWindow, dataPayload()));
+			rate = window * TimeUnit.SECONDS.toNanos(1) / _srtt * PACING_GAIN_PERCENT / 100;
+		}
+		if (_rateLimit > 0 && (rate == 0 || rate > _rateLimit)) {
+			rate = _rateLimit;
+		}
+		_pacer.setRate(rate);
+	}
+
+	private Segment slot(int seq) {
+		return _window[Math.floorMod(seq, _window.length)];
+	}
+
+	/**
+	 * Fails every message still queued or in flight and every open progress query.
+	 */
+	public void abort(Throwable cause) {
+		List<Message> failed = new ArrayList<>();
+		List<Query> queries;
+		synchronized (this) {
+			for (int seq = _sndUna; seq != _sndNxt; seq++) {
+				Message msg = slot(seq).message;
+				if (msg != null && !failed.contains(msg)) {
+					failed.add(msg);
+				}
+			}
+			for (Stream st : _streams.values()) {
+				if (st.current != null && !failed.contains(st.current)) {
+					failed.add(st.current);
+				}
+				st.queue.drainTo(failed);
+			}
+			queries = new ArrayList<>(_queries.values());
+			_queries.clear();
+		}
+		for (Message msg : failed) {
+			msg.done.completeExceptionally(cause);
+		}
+		for (Query query : queries) {
+			query.done.completeExceptionally(cause);
+		}
+	}
+
+	/*
+	 * Display session statistics
+	 */
+	public synchronized String getStats() {
+		StringBuilder perStripe = new StringBuilder();
+		if (_stripes.length > 1) {
+			perStripe.append(", per stripe:");
+			for (Stripe stripe : _stripes) {
+				perStripe.append(' ').append(stripe.segmentsSent);
+			}
+		}
+		StringBuilder perStream = new StringBuilder();
+		if (_streams.size() > 1) {
+			perStream.append(", per stream:");
+			for (Stream st : _streams.values()) {
+				perStream.append(' ').append(st.id).append('=').append(st.segmentsSent);
+			}
+		}
+		return "segments sent: " + _segmentsSent + perStripe + perStream +
+				", retransmissions: " + _retransmissions +
+				", fast retransmissions: " + _fastRetransmissions +
+				", acks received: " + _acksReceived +
+				", window probes: " + _windowProbes +
+				", retransmit ring: " + _window.length + " x " + (UDPSegment.HEADER_SIZE + _mss) + " B off-heap" +
+				", peer window: " + _peerWindow +
+				", messages acknowledged: " + _messagesAcked +
+				", pacing rate: " + _pacer.getRate() / 1024 + " KB/s" +
+				", paced waits: " + _pacedWaits +
+				(_messagesAbandoned == 0 ? "" : ", messages abandoned: " + _messagesAbandoned + ", skips sent: " + _skipsSent) +
+				(_probe == null ? "" : ", segment size: " + _segmentSize + ", probes sent: " + _probesSent) +
+				(_fec == null ? "" : ", parity sent: " + _paritySent + " (" + _fecGroup + "+" + _fecParity + ")") +
+				", compressed segments: " + _compressedSegments +
+				", compression ratio: " + (_rawBytes == 0 ? "-" : String.format("%.2f", (double) _compressedBytes / _rawBytes)) +
+				", compression time: " + TimeUnit.NANOSECONDS.toMillis(_compressNanos) + " ms" +
+				", srtt: " + TimeUnit.NANOSECONDS.toMillis(_srtt) + " ms" +
+				", rto: " + TimeUnit.NANOSECONDS.toMillis(_rto) + " ms";
+	}
+}
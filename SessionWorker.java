@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the protocol work of one receiver session on its own thread. The
+ * socket reader posts datagrams into a bounded mailbox and returns at once,
+ * so validation, reordering and a slow consumer on one session never hold up
+ * the others. When the mailbox is full the datagram is dropped, just as a
+ * full socket buffer would, and the sender retransmits it.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class SessionWorker implements Runnable {
+
+	private static final ThreadFactory THREADS = sessionThreads();
+
+	private final ReceiverSession _session;
+	private final ArrayBlockingQueue<Datagram> _mailbox;
+	private final ArrayBlockingQueue<Datagram> _free;   // emptied datagrams, so posting allocates nothing
+	private final Thread _thread;
+	private volatile boolean _running = true;
+	private volatile long _dropped;   // datagrams dropped because the mailbox was full
+	private volatile long _postedAt = System.nanoTime(); // when the last datagram was posted
+
+	// A datagram copied out of the reader's buffer; recycled through _free
+	private static final class Datagram {
+		ByteBuffer    data = ByteBuffer.allocate(0);
+		SocketAddress from;
+	}
+
+	/**
+	 * Constructs a worker and starts its thread.
+	 *
+	 * @param session - the session this worker serves
+	 * @param mailboxCapacity - datagrams that can wait for the worker
+	 */
+	public SessionWorker(ReceiverSession session, int mailboxCapacity) {
+		_session = session;
+		_mailbox = new ArrayBlockingQueue<>(mailboxCapacity);
+		_free = new ArrayBlockingQueue<>(mailboxCapacity);
+		_thread = THREADS.newThread(this);
+		_thread.setName("session-" + Integer.toHexString(session.getConnectionId()));
+		_thread.start();
+	}
+
+	// Virtual threads when the runtime has them (Java 21), daemon platform threads otherwise
+	private static ThreadFactory sessionThreads() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException ex) {
+			return r -> {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+
+	public ReceiverSession getSession() {
+		return _session;
+	}
+
+	/*
+	 * Get the System.nanoTime of the last datagram posted, or of the start if none was.
+	 */
+	public long getPostedAt() {
+		return _postedAt;
+	}
+
+	/**
+	 * Hands a datagram to the worker without waiting.
+	 *
+	 * @param datagram - the datagram, from position to limit; copied
+	 * @param from - the address the datagram came from
+	 *
+	 * @return false if the mailbox was full and the datagram dropped
+	 */
+	public boolean post(ByteBuffer datagram, SocketAddress from) {
+		_postedAt = System.nanoTime();
+		Datagram copy = _free.poll();
+		if (copy == null) {
+			copy = new Datagram();
+		}
+		if (copy.data.capacity() < datagram.remaining()) {
+			copy.data = ByteBuffer.allocate(datagram.remaining());
+		}
+		copy.data.clear();
+		copy.data.put(datagram).flip();
+		copy.from = from;
+		if (!_mailbox.offer(copy)) {
+			_free.offer(copy);
+			_dropped++;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		long wait = Long.MAX_VALUE;
+		while (_running) {
+			try {
+				// sleep until the next datagram or the next held acknowledgement
+				Datagram datagram = wait == Long.MAX_VALUE
+						? _mailbox.take()
+						: _mailbox.poll(wait, TimeUnit.NANOSECONDS);
+				if (datagram != null) {
+					_session.onSegment(datagram.data, datagram.from, System.nanoTime());
+					datagram.from = null;
+					_free.offer(datagram);
+				}
+				wait = _session.flushAck(System.nanoTime());
+			} catch (InterruptedException ex) {
+				break;
+			} catch (IOException ex) {
+				System.err.println("unable to send message to server");
+			}
+		}
+		_session.close();  // on this thread, which is the only one decoding
+	}
+
+	/**
+	 * Stops the worker thread, which then closes its session.
+	 */
+	public void stop() {
+		_running = false;
+		_thread.interrupt();
+	}
+
+	/*
+	 * Display worker statistics
+	 */
+	public String getStats() {
+		return _session.getStats() + ", mailbox drops: " + _dropped;
+	}
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving side of resumable file transfers. A file is sent as one message
+ * per chunk on stream STREAM; each message starts with CHUNK_HEADER bytes
+ * naming the transfer, the chunk and the file, so chunks can arrive over any
+ * number of connections and in any order.
+ *
+ * Every transfer is written to a file named after its id in the directory,
+ * with its progress in a ProgressMap sidecar next to it. A chunk's bit is
+ * set once all of its bytes are written, and the sidecar is forced at most
+ * every FLUSH_INTERVAL and when the transfer completes. A restarted sender
+ * asks for the progress with a QUERY segment and resends only what is
+ * missing. Both files live in the page cache, so a killed process loses
+ * nothing; after a crash of the machine at most FLUSH_INTERVAL of chunks is
+ * received again. A transfer is closed as soon as it is complete; chunks of
+ * it that arrive later are ignored.
+ *
+ * Chunk header (big endian): transfer id 8 bytes, file length 8 bytes,
+ * chunk size 4 bytes, chunk index 4 bytes.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public class TransferStore {
+
+	public static final int STREAM       = SenderSession.MAX_STREAM; // stream reserved for file chunks
+	public static final int CHUNK_SIZE   = 64 * 1024;
+	public static final int CHUNK_HEADER = 24;
+	private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private final Path _dir;
+	private final Map<Long, Transfer> _transfers = new HashMap<>(); // open, incomplete transfers by id
+
+	// The data file and progress of one transfer
+	private static final class Transfer {
+		final ProgressMap progress;
+		final FileChannel data;
+		long              flushedAt;
+
+		Transfer(ProgressMap progress, FileChannel data) {
+			this.progress = progress;
+			this.data = data;
+			this.flushedAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @param dir - where transferred files and their sidecars are kept, created if needed
+	 */
+	public TransferStore(Path dir) throws IOException {
+		_dir = Files.createDirectories(dir);
+	}
+
+	/*
+	 * The file a transfer is written to.
+	 */
+	public Path dataFile(long transferId) {
+		return _dir.resolve(Long.toHexString(transferId));
+	}
+
+	private Path sidecar(long transferId) {
+		return _dir.resolve(Long.toHexString(transferId) + ".progress");
+	}
+
+	/*
+	 * A listener taking the chunk messages of one connection.
+	 */
+	public MessageListener listener() {
+		return new ChunkListener();
+	}
+
+	/**
+	 * Writes the progress of a transfer into a PROGRESS reply: the number of
+	 * chunks (0 for an unknown transfer), from, the chunk the ranges end at,
+	 * and the missing [start, end) ranges from from onwards, as many as fit.
+	 *
+	 * @param transferId - the transfer asked about
+	 * @param from - the first chunk asked about
+	 * @param reply - receives the fields from its position
+	 */
+	public synchronized void writeProgress(long transferId, int from, ByteBuffer reply) {
+		ProgressMap progress = null;
+		try {
+			Transfer transfer = _transfers.get(transferId);
+			progress = transfer != null ? transfer.progress : ProgressMap.read(sidecar(transferId));
+		} catch (IOException ex) {
+			System.err.println("unable to read the progress of transfer " + Long.toHexString(transferId) + ": " + ex);
+		}
+		if (progress == null || progress.getTransferId() != transferId) {
+			reply.putInt(0).putInt(from).putInt(0);
+			return;
+		}
+		reply.putInt(progress.getChunks()).putInt(from);
+		int nextOff = reply.position();
+		reply.putInt(0);
+		reply.putInt(nextOff, progress.missing(from, reply));
+	}
+
+	// The open transfer with an id, resuming its sidecar or starting it; null if it is already complete
+	private synchronized Transfer open(long transferId, long length, int chunkSize) throws IOException {
+		Transfer transfer = _transfers.get(transferId);
+		if (transfer == null) {
+			ProgressMap done = ProgressMap.read(sidecar(transferId));
+			if (done != null && done.getTransferId() == transferId && done.getLength() == length
+					&& done.getChunkSize() == chunkSize && done.isComplete()) {
+				return null;
+			}
+			ProgressMap progress = ProgressMap.create(sidecar(transferId), transferId, length, chunkSize);
+			FileChannel data = FileChannel.open(dataFile(transferId), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE);
+			transfer = new Transfer(progress, data);
+			_transfers.put(transferId, transfer);
+		}
+		return transfer;
+	}
+
+	// Record a chunk whose bytes are all written, forcing both files now and then and closing a complete transfer
+	private synchronized void complete(Transfer transfer, int chunk) throws IOException {
+		if (!transfer.data.isOpen()) {
+			return;  // completed by another connection meanwhile
+		}
+		transfer.progress.set(chunk);
+		long now = System.nanoTime();
+		if (transfer.progress.isComplete() || now - transfer.flushedAt >= FLUSH_INTERVAL) {
+			transfer.data.force(false);  // data first, so a set bit never stands for bytes not on the device
+			transfer.progress.force();
+			transfer.flushedAt = now;
+		}
+		if (transfer.progress.isComplete()) {
+			_transfers.remove(transfer.progress.getTransferId());
+			transfer.data.close();
+		}
+	}
+
+	/*
+	 * Force and close every open transfer.
+	 */
+	public synchronized void close() {
+		for (Transfer transfer : _transfers.values()) {
+			try {
+				transfer.data.force(false);
+				transfer.progress.force();
+				transfer.data.close();
+			} catch (IOException ex) {
+				System.err.println("unable to close transfer " + Long.toHexString(transfer.progress.getTransferId()));
+			}
+		}
+		_transfers.clear();
+	}
+
+	// Writes the chunk messages of one connection into their files
+	private final class ChunkListener implements MessageListener {
+		private final ByteBuffer _header = ByteBuffer.allocate(CHUNK_HEADER);
+		private Transfer _transfer;  // transfer of the current chunk, null while its header is incomplete
+		private int      _chunk;
+		private long     _position;  // where the next byte of the chunk goes in the file
+		private long     _end;       // end of the chunk in the file
+		private boolean  _failed;    // the chunk cannot be written; its bit stays clear
+
+		@Override
+		public void onData(ByteBuffer data, boolean endOfMessage) {
+			try {
+				if (!_failed) {
+					write(data);
+				}
+				if (endOfMessage && !_failed && _transfer != null && _position == _end) {
+					complete(_transfer, _chunk);
+				}
+			} catch (ClosedChannelException ex) {
+				_failed = true;  // the transfer was completed by another connection meanwhile
+			} catch (IOException ex) {
+				System.err.println("unable to write chunk " + _chunk + ": " + ex);
+				_failed = true;
+			}
+			if (endOfMessage) {
+				onSkip();
+			}
+		}
+
+		private void write(ByteBuffer data) throws IOException {
+			if (_transfer == null) {
+				while (_header.hasRemaining() && data.hasRemaining()) {
+					_header.put(data.get());
+				}
+				if (_header.hasRemaining()) {
+					return;
+				}
+				long transferId = _header.getLong(0);
+				long length = _header.getLong(8);
+				int chunkSize = _header.getInt(16);
+				_chunk = _header.getInt(20);
+				if (chunkSize <= 0 || _chunk < 0 || (long) _chunk * chunkSize >= length) {
+					_failed = true;
+					return;
+				}
+				_transfer = open(transferId, length, chunkSize);
+				if (_transfer == null) {
+					_failed = true;  // a late copy of a chunk of a complete transfer
+					return;
+				}
+				_position = (long) _chunk * chunkSize;
+				_end = Math.min(length, _position + chunkSize);
+			}
+			if (_position + data.remaining() > _end) {
+				_failed = true;  // longer than the chunk
+				return;
+			}
+			while (data.hasRemaining()) {
+				_position += _transfer.data.write(data, _position);
+			}
+		}
+
+		// Start over with the next message
+		@Override
+		public void onSkip() {
+			_header.clear();
+			_transfer = null;
+			_failed = false;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * Moves datagrams between the sender, the network and the receiver. The
+ * protocol classes only talk to this interface, so the same code can run
+ * over real sockets or over an in-memory channel.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public interface Transport {
+
+	/**
+	 * Sends the remaining bytes of a buffer as one datagram.
+	 *
+	 * @param src - the datagram, from position to limit
+	 * @param target - the address of the host receiving this datagram
+	 */
+	void send(ByteBuffer src, SocketAddress target) throws IOException;
+
+	/**
+	 * Receives one datagram into a buffer. Bytes that do not fit are discarded.
+	 *
+	 * @param dst - the buffer to fill, starting at its position
+	 * @param timeoutMillis - how long to wait, or 0 to wait forever
+	 *
+	 * @return - the address of the sender or null if the time out elapsed
+	 */
+	SocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException;
+
+	/**
+	 * Sends several datagrams to the same target back to back.
+	 *
+	 * @param srcs - the datagrams, each from position to limit
+	 * @param count - the number of datagrams in srcs to send
+	 * @param target - the address of the host receiving the datagrams
+	 */
+	default void sendBatch(ByteBuffer[] srcs, int count, SocketAddress target) throws IOException {
+		for (int i = 0; i < count; i++) {
+			send(srcs[i], target);
+		}
+	}
+
+	/**
+	 * Waits for one datagram, then takes every other datagram already waiting
+	 * without blocking again. Each buffer is filled from its position; the
+	 * caller flips the ones that were used.
+	 *
+	 * @param dsts - the buffers to fill, one datagram each
+	 * @param froms - receives the address of each datagram's sender
+	 * @param timeoutMillis - how long to wait for the first datagram, or 0 to wait forever
+	 *
+	 * @return - the number of datagrams received, 0 if the time out elapsed
+	 */
+	default int receiveBatch(ByteBuffer[] dsts, SocketAddress[] froms, long timeoutMillis) throws IOException {
+		froms[0] = receive(dsts[0], timeoutMillis);
+		return froms[0] == null ? 0 : 1;
+	}
+
+	/**
+	 * @return - the address this transport is bound to
+	 */
+	SocketAddress localAddress();
+
+	/**
+	 * Closes the transport and wakes up any thread waiting in receive.
+	 */
+	void close();
+
+	/**
+	 * Resolves a host name and port number to a socket address.
+	 *
+	 * @param hostname - the ip or hostname of the host
+	 * @param port - the port number of the host
+	 *
+	 * @return the resolved address
+	 */
+	static InetSocketAddress resolve(String hostname, int port) throws UnknownHostException {
+		return new InetSocketAddress(InetAddress.getByName(hostname.trim()), port);
+	}
+}
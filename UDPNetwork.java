@@ -1,14 +1,41 @@
 import java.io.IOException;
-import java.net.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This program listens for outside communications, and forwards the messages
  * to their correct locations.
  *
+ * Optionally windowed segments cross an emulated link of a fixed rate. They
+ * wait in a FairQueue, one bounded queue per flow served by deficit round
+ * robin with a weight per sender port, or in one FIFO queue to compare with.
+ *
+ * Optionally a RouteTable sends segments somewhere else than the destination
+ * in their header, to one or several next hops. The route file is read again
+ * whenever it changes, without stopping the forwarding. Routes apply to the
+ * segments going to a receiver only; replies always go to the sender in
+ * their header. A connection that did a handshake stays on the receiver
+ * that answered its SYN_ACK, also under a route to all hops: the other
+ * receivers never agreed on its parameters. Only connections without a
+ * handshake, and legacy packets, are copied to every hop.
+ *
  * @author Chakrya Ros
  * @author Trevor Robinson
  * @date 8/6/2023
@@ -17,9 +44,17 @@ import java.util.Random;
 public class UDPNetwork {
 
 	private static final int BUFFER_SIZE = 54;
-	private DatagramSocket   _socket; // the socket for communication with clients
+	private static final long DELAY_MILLIS = 8750; // how long a delayed packet is held
+	private static final int STATS_INTERVAL = 1000; // segments between statistics lines
+	private static final int BATCH = 64; // datagrams taken from the socket per wake up
+	private static final int QUANTUM = UDPSegment.HEADER_SIZE + UDPSegment.DEFAULT_MSS; // bytes per turn at weight 1
+	private static final long LINK_IDLE_MILLIS = 100; // longest wait of the link thread for a packet
+	private static final long ROUTE_CHECK_MILLIS = 1000; // how often the route file is checked for changes
+	private static final long AFFINITY_IDLE_NANOS = TimeUnit.MINUTES.toNanos(10); // a connection this quiet is forgotten
+	private static final long AFFINITY_SWEEP_MILLIS = 10000; // how often forgotten connections are removed
+	private Transport        _transport; // the transport for communication with clients
 	private final int              _port;   // the port number for communication with this server
-	private boolean          _continueService; // whether or not to continue iteration
+	private volatile boolean _continueService; // whether or not to continue iteration
 	private final Random           random = new Random(); // Random object to calculate random numbers
 
 	// Variables to hold values provided by command-line arguments
@@ -27,6 +62,35 @@ public class UDPNetwork {
 	private final int _delayedPercent;
 	private final int _errorPercent;
 	byte[]      _packetIn;
+	private InetSocketAddress _lastDest;    // destination of the previous segment
+	private long              _lastDestKey; // its address packed by UDPSegment.destinationKey
+	private FairQueue         _link;        // queues of the emulated link, null to forward at once
+	private final Pacer       _linkPacer = new Pacer(QUANTUM); // holds the link to its rate
+	private final Map<Integer, Integer> _weights = new HashMap<>(); // flow weight by sender port
+	private volatile int      _maxDatagram; // largest segment the path carries, 0 for no limit
+	private volatile RouteTable _routes = RouteTable.EMPTY; // replaced whole when the route file changes
+	private Path              _routeFile;   // where _routes came from, null for none
+	private long              _routesModified; // modification time of the route file when it was read
+	private final Map<String, InetSocketAddress> _resolved = new ConcurrentHashMap<>(); // legacy destinations by "host:port"
+	private final Map<Integer, Affinity> _affinity = new ConcurrentHashMap<>(); // receiver that answered a handshake, by assigned id
+
+	// Holds delayed segments without a thread per segment
+	private final ScheduledExecutorService _delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "network-delay");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// The receiver a connection sticks to and when a segment last used it
+	private static final class Affinity {
+		final InetSocketAddress hop;
+		volatile long           usedAt;
+
+		Affinity(InetSocketAddress hop, long usedAt) {
+			this.hop = hop;
+			this.usedAt = usedAt;
+		}
+	}
 
 	/**
 	 * Constructs a UDPserver object.
@@ -51,8 +115,8 @@ public class UDPNetwork {
 	public int createSocket() {
 		try {
 			// Try opening a new socket with the provided port number
-			_socket = new DatagramSocket(_port);
-		} catch (SocketException ex) {
+			_transport = new DatagramChannelTransport(_port);
+		} catch (IOException ex) {
 			System.err.println("unable to create and bind socket");
 			return -1;
 		}
@@ -60,6 +124,104 @@ public class UDPNetwork {
 		return 0;
 	}
 
+	/**
+	 * Uses an already bound transport, for example a MemoryTransport, instead of a socket.
+	 *
+	 * @param transport - the transport for communication with clients
+	 */
+	public void setTransport(Transport transport) {
+		_transport = transport;
+	}
+
+	/**
+	 * Sends windowed segments over an emulated link instead of forwarding them
+	 * at once. Must be called before run.
+	 *
+	 * @param bytesPerSecond - the rate of the link
+	 * @param queueBytes - bytes each flow may queue, or all of them in FIFO mode
+	 * @param fair - true for deficit round robin between the flows, false for one FIFO queue
+	 */
+	public void setLink(long bytesPerSecond, int queueBytes, boolean fair) {
+		_link = new FairQueue(QUANTUM, queueBytes, fair);
+		_linkPacer.setRate(bytesPerSecond);
+	}
+
+	/**
+	 * Gives the flows of a sender a larger share of the link: both the data it
+	 * sends and the replies it gets. Must be called before its first segment.
+	 *
+	 * @param senderPort - the port the sender sends from
+	 * @param weight - its share relative to the default of 1
+	 */
+	public void setFlowWeight(int senderPort, int weight) {
+		_weights.put(senderPort, weight);
+	}
+
+	/**
+	 * Drops every segment larger than a path MTU would let through, so path
+	 * MTU probing can be tried out locally.
+	 *
+	 * @param bytes - the largest datagram forwarded, 0 for no limit
+	 */
+	public void setMaxDatagram(int bytes) {
+		_maxDatagram = bytes;
+	}
+
+	/**
+	 * Loads routes from a file and reloads them whenever the file changes.
+	 *
+	 * @param file - the route file; see RouteTable
+	 *
+	 * @return - 0, or -1 if the file cannot be read
+	 */
+	public int setRouteFile(String file) {
+		_routeFile = Paths.get(file);
+		if (reloadRoutes() < 0) {
+			return -1;
+		}
+		_delayer.scheduleWithFixedDelay(() -> {
+			try {
+				if (Files.getLastModifiedTime(_routeFile).toMillis() != _routesModified) {
+					reloadRoutes();
+				}
+			} catch (IOException ex) {
+				System.err.println("unable to check route file " + _routeFile);
+			}
+		}, ROUTE_CHECK_MILLIS, ROUTE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+		// The network never sees a connection close; one that went quiet is taken as closed
+		_delayer.scheduleWithFixedDelay(() -> {
+			long now = System.nanoTime();
+			_affinity.values().removeIf(affinity -> now - affinity.usedAt > AFFINITY_IDLE_NANOS);
+		}, AFFINITY_SWEEP_MILLIS, AFFINITY_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+		return 0;
+	}
+
+	/**
+	 * Reads the route file again. Segments keep using the old routes until the
+	 * new table is complete; a file that does not parse leaves them in place.
+	 *
+	 * @return - 0, or -1 if the file cannot be read
+	 */
+	public int reloadRoutes() {
+		try {
+			long modified = Files.getLastModifiedTime(_routeFile).toMillis();
+			_routes = RouteTable.load(_routeFile);
+			_routesModified = modified;
+		} catch (IOException ex) {
+			System.err.println("unable to load routes: " + ex.getMessage());
+			return -1;
+		}
+		System.out.println("Routes loaded: " + _routes.size());
+		return 0;
+	}
+
+	/*
+	 * Get the throughput and queueing delay of every flow of the link.
+	 */
+	public String getFlowStats() {
+		return _link == null ? "" : _link.getStats();
+	}
+
 	/**
  	 * Runs the program to retrieve necessary information and forward
     	 * the received packet.
@@ -70,18 +232,79 @@ public class UDPNetwork {
 		int delayTotal = 0;
 		int errorTotal = 0;
 		int lostTotal = 0;
+		int oversizedTotal = 0;
 		// run server until gracefully shut down
 		_continueService = true;
 		int totalReceived = 0;
+		ByteBuffer[] batch = new ByteBuffer[BATCH];
+		SocketAddress[] froms = new SocketAddress[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			batch[i] = ByteBuffer.allocateDirect(UDPSegment.MAX_SEGMENT);
+		}
+		int received = 0;
+		int next = 0;
+		if (_link != null) {
+			Thread link = new Thread(this::linkLoop, "network-link");
+			link.setDaemon(true);
+			link.start();
+		}
 		while (_continueService) {
-			DatagramPacket newDatagramPacket = receiveRequest();  //receive the packet
+			// Drain every datagram waiting in the socket before waiting again
+			if (next == received) {
+				for (int i = 0; i < received; i++) {
+					batch[i].clear();
+				}
+				received = receiveRequests(batch, froms);
+				if (received < 0) {
+					break;
+				}
+				next = 0;
+			}
+			ByteBuffer buffer = batch[next];
+			InetSocketAddress from = (InetSocketAddress) froms[next++];
+			buffer.flip();
+
+			// Windowed segments are forwarded as they are, to the destination in their header
+			if (UDPSegment.isSegment(buffer)) {
+				totalReceived += 1;
+				InetSocketAddress dest = destination(buffer);
+				if (UDPSegment.type(buffer) == UDPSegment.TYPE_SYN_ACK && _routes != RouteTable.EMPTY) {
+					learnAffinity(buffer, from);
+				}
+				int rand = roll();
+				if (_maxDatagram > 0 && buffer.remaining() > _maxDatagram) {
+					oversizedTotal++;  // too big for the path: dropped without an error, like a lost probe
+				} else if (rand <= _delayedPercent) {
+					delayTotal++;
+					ByteBuffer segment = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+					_delayer.schedule(() -> route(segment, dest), DELAY_MILLIS, TimeUnit.MILLISECONDS);
+				} else if (rand <= _errorPercent) {
+					errorTotal++;
+					int last = buffer.limit() - 1;
+					buffer.put(last, (byte) ~buffer.get(last)); // flip the bits of the last byte
+					route(buffer, dest);
+				} else if (rand <= _lostPercent) {
+					lostTotal++;
+				} else {
+					route(buffer, dest);
+				}
+				if (totalReceived % STATS_INTERVAL == 0) {
+					System.out.println("Segments: " + totalReceived + ", delayed: " + delayTotal +
+							", lost: " + lostTotal + ", corrupted: " + errorTotal +
+							(_maxDatagram > 0 ? ", too big: " + oversizedTotal : ""));
+					System.out.print(getFlowStats());
+				}
+				continue;
+			}
+
 			Charset charset = StandardCharsets.US_ASCII;
-			String request = charset.decode(ByteBuffer.wrap(newDatagramPacket.getData()))
+			buffer.clear().limit(BUFFER_SIZE);
+			String request = charset.decode(buffer)
 					.toString(); 		//Convert the packet to string.
 
 			System.out.println("----------------------------------------------");
-			System.out.println("Sender IP: " + newDatagramPacket.getAddress().getHostAddress() +
-					" Port: " + newDatagramPacket.getPort());
+			System.out.println("Sender IP: " + from.getAddress().getHostAddress() +
+					" Port: " + from.getPort());
 			totalReceived += 1;
 			System.out.println("Receiver Packet: " + totalReceived);
 
@@ -109,9 +332,7 @@ public class UDPNetwork {
 				_packetIn = rcvPacket.getSegment();
 
 				// Calculate random number
-				double random = Math.random();
-				double x = random*100;
-				int rand = (int)x + 1; //Add 1 to change the range to 1 - 100
+				int rand = roll();
 				
 				/*
 				 * If the random number is within the range provided by the user for delay,
@@ -167,6 +388,133 @@ public class UDPNetwork {
 		}
 	}
 
+	/*
+	 * Calculate random number in the range 1 - 100
+	 */
+	private int roll() {
+		double x = Math.random() * 100;
+		return (int) x + 1; //Add 1 to change the range to 1 - 100
+	}
+
+	// Resolve the destination of a segment, reusing the last address while it repeats
+	private InetSocketAddress destination(ByteBuffer segment) {
+		long key = UDPSegment.destinationKey(segment);
+		if (_lastDest == null || key != _lastDestKey) {
+			_lastDest = UDPSegment.destination(segment);
+			_lastDestKey = key;
+		}
+		return _lastDest;
+	}
+
+	/**
+	 * Sends a windowed segment along its route, or to the destination in its
+	 * header when it is a reply or has no route.
+	 *
+	 * @param segment - the whole segment, from position to limit
+	 * @param dest - the destination in its header
+	 */
+	private void route(ByteBuffer segment, InetSocketAddress dest) {
+		byte type = UDPSegment.type(segment);
+		RouteTable.Route route = isReply(type) ? null
+				: _routes.lookup(UDPSegment.connectionId(segment), UDPSegment.destinationKey(segment));
+		if (route == null) {
+			forward(segment, dest);
+			return;
+		}
+		int connId = UDPSegment.connectionId(segment);
+		Affinity affinity = _affinity.get(connId);
+		if (affinity != null) {
+			affinity.usedAt = System.nanoTime();
+			forward(segment, affinity.hop);
+		} else if (route.hash) {
+			forward(segment, route.pick(connId));
+		} else if (type == UDPSegment.TYPE_SYN) {
+			forward(segment, route.hops[0]);  // one receiver negotiates; the connection then sticks to it
+		} else {
+			for (InetSocketAddress hop : route.hops) {
+				forward(segment.duplicate(), hop);
+			}
+		}
+	}
+
+	// Segments a receiver sends back to a sender
+	private static boolean isReply(byte type) {
+		return type == UDPSegment.TYPE_ACK || type == UDPSegment.TYPE_PROGRESS
+				|| type == UDPSegment.TYPE_SYN_ACK || type == UDPSegment.TYPE_PROBE_ACK;
+	}
+
+	/**
+	 * Remembers which receiver answered a handshake, so the connection id it
+	 * assigned keeps going to it whatever hop that id would hash to.
+	 *
+	 * @param synAck - the SYN_ACK, from position to limit
+	 * @param from - the receiver it came from
+	 */
+	private void learnAffinity(ByteBuffer synAck, InetSocketAddress from) {
+		Handshake answer = Handshake.read(UDPSegment.payload(synAck.duplicate()));
+		if (answer != null) {
+			_affinity.put(answer.connId, new Affinity(from, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * Forwards a windowed segment, through the link queues if there is a link.
+	 *
+	 * @param segment - the whole segment, from position to limit
+	 * @param dest - the address of the host receiving the segment
+	 */
+	private void forward(ByteBuffer segment, InetSocketAddress dest) {
+		if (_link == null) {
+			sendSegment(segment, dest);
+			return;
+		}
+		// One flow per direction of a connection; the replies belong to the sender they go to
+		boolean reply = isReply(UDPSegment.type(segment));
+		int connId = UDPSegment.connectionId(segment);
+		int senderPort = reply ? dest.getPort() : (int) (UDPSegment.sourceKey(segment) & 0xFFFF);
+		String name = Integer.toHexString(connId) + (reply ? " replies" : " data");
+		ByteBuffer copy = ByteBuffer.allocate(segment.remaining()).put(segment).flip();
+		_link.offer((long) connId << 1 | (reply ? 1 : 0), name, _weights.getOrDefault(senderPort, 1), copy, dest,
+				System.nanoTime());
+	}
+
+	// Link thread: send the next packet the queues pick whenever the rate allows one
+	private void linkLoop() {
+		while (_continueService) {
+			long wait;
+			while ((wait = _linkPacer.delay(System.nanoTime())) > 0) {
+				LockSupport.parkNanos(this, wait);
+			}
+			FairQueue.Packet packet;
+			try {
+				packet = _link.take(LINK_IDLE_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			if (packet == null) {
+				continue;
+			}
+			long now = System.nanoTime();
+			_link.sent(packet, now);
+			_linkPacer.consume(now, packet.data.remaining());
+			sendSegment(packet.data, packet.dest);
+		}
+	}
+
+	/**
+	 * Forwards a windowed segment to its destination.
+	 *
+	 * @param segment - the whole segment, from position to limit
+	 * @param dest - the address of the host receiving the segment
+	 */
+	private void sendSegment(ByteBuffer segment, InetSocketAddress dest) {
+		try {
+			_transport.send(segment, dest);
+		} catch (IOException ex) {
+			System.err.println("unable to send message to server");
+		}
+	}
+
 	/**
 	 * Sends a request for service to the server. Do not wait for a reply in this function. This will be
 	 * an asynchronous call to the server.
@@ -179,42 +527,65 @@ public class UDPNetwork {
 	 */
 	public int sendResponse(byte[] packet, String hostAddr, int port) {
 
-		// Create datagram packet with provided parameters
-		DatagramPacket newDatagramPacket = createDatagramPacket(packet, hostAddr, port);
-		if (newDatagramPacket != null) {
-			try {
-				_socket.send(newDatagramPacket);
-			} catch (IOException ex) {
-				System.err.println("unable to send message to server");
-				return -1;
+		// Resolve the destination once, then send the packet along its route
+		try {
+			String key = hostAddr.trim() + ":" + port;
+			InetSocketAddress dest = _resolved.get(key);
+			if (dest == null) {
+				dest = Transport.resolve(hostAddr, port);
+				_resolved.put(key, dest);
+			}
+			RouteTable.Route route = _routes.lookup(RouteTable.endpointKey(dest));
+			if (route == null) {
+				_transport.send(ByteBuffer.wrap(packet, 0, BUFFER_SIZE), dest);
+			} else {
+				for (InetSocketAddress hop : route.hash ? new InetSocketAddress[] { route.hops[0] } : route.hops) {
+					_transport.send(ByteBuffer.wrap(packet, 0, BUFFER_SIZE), hop);
+				}
 			}
-			return 0;
+		} catch (UnknownHostException ex) {
+			System.err.println ("invalid host address");
+			return -1;
+		} catch (IOException ex) {
+			System.err.println("unable to send message to server");
+			return -1;
 		}
-		System.err.println("unable to send message to server");
-		return -1;
+		return 0;
 	}
 
 	/**
 	 * Receives a client's request.
 	 *
-	 * @return - the datagram containing the client's request or NULL if an error occured
+	 * @param buffer - the buffer to store the client's request
+	 *
+	 * @return - the address of the client or NULL if an error occured
 	 */
-	public DatagramPacket receiveRequest() {
+	public InetSocketAddress receiveRequest(ByteBuffer buffer) {
 
-		// Create new packet with buffer
-		byte[] buffer = new byte[BUFFER_SIZE];
-		DatagramPacket newDatagramPacket = new DatagramPacket(buffer, BUFFER_SIZE);
-		
-		// Receive new packet and store in created packet
+		// Receive new packet and store in the buffer
 		try {
-			_socket.receive(newDatagramPacket);
+			return (InetSocketAddress) _transport.receive(buffer, 0);
 		} catch (IOException ex) {
 			System.err.println("unable to receive message from server");
 			return null;
 		}
+	}
 
-		// Return the received packet
-		return newDatagramPacket;
+	/**
+	 * Receives every client request already waiting, or waits for the next one.
+	 *
+	 * @param buffers - the buffers to store the requests, one each
+	 * @param froms - receives the address of each client
+	 *
+	 * @return - the number of requests received, or -1 if an error occured
+	 */
+	public int receiveRequests(ByteBuffer[] buffers, SocketAddress[] froms) {
+		try {
+			return _transport.receiveBatch(buffers, froms, 0);
+		} catch (IOException ex) {
+			System.err.println("unable to receive message from server");
+			return -1;
+		}
 	}
 
 	/*
@@ -234,7 +605,7 @@ public class UDPNetwork {
 	 * @return - 0, if no error; otherwise, a negative number indicating the error
 	 */
 	public int closeSocket() {
-		_socket.close();
+		_transport.close();
 
 		return 0;
 	}
@@ -251,13 +622,33 @@ public class UDPNetwork {
 		int delayedPercent;
 		int errorPercent;
 		int portNum;
+		long linkRate = 0;      // no link: forward at once
+		int queueBytes = 64 * 1024;
+		boolean fair = true;
+		Map<Integer, Integer> weights = new HashMap<>();
 
 		// Network object
 		UDPNetwork  server;
 
+		// A route file and a path MTU may be given anywhere after the required arguments
+		String routeFile = null;
+		int maxDatagram = 0;
+		List<String> positional = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("routes=")) {
+				routeFile = arg.substring(7);
+			} else if (arg.startsWith("mtu=") && arg.substring(4).matches("\\d+")) {
+				maxDatagram = Integer.parseInt(arg.substring(4));
+			} else {
+				positional.add(arg);
+			}
+		}
+		args = positional.toArray(new String[0]);
+
 		// Ensure user runs program with proper arguments
-		if (args.length != 4) {
-			System.err.println("Usage: UDPNetwork <port number>  <lostPercent> <delayedPercent> <errorPercent>\n");
+		if (args.length < 4) {
+			System.err.println("Usage: UDPNetwork <port number>  <lostPercent> <delayedPercent> <errorPercent>" +
+					" [link KB/s [queue KB [drr|fifo [senderPort=weight ...]]]] [routes=<file>] [mtu=<bytes>]\n");
 			return;
 		}
 
@@ -267,17 +658,36 @@ public class UDPNetwork {
 			lostPercent = Integer.parseInt(args[1]);
 			delayedPercent = Integer.parseInt(args[2]);
 			errorPercent = Integer.parseInt(args[3]);
+			if (args.length > 4) {
+				linkRate = Long.parseLong(args[4]) * 1024;
+			}
+			if (args.length > 5) {
+				queueBytes = Integer.parseInt(args[5]) * 1024;
+			}
+			if (args.length > 6) {
+				fair = !args[6].equals("fifo");
+			}
+			for (int i = 7; i < args.length; i++) {
+				int equals = args[i].indexOf('=');
+				weights.put(Integer.parseInt(args[i].substring(0, equals)), Integer.parseInt(args[i].substring(equals + 1)));
+			}
 			System.err.println("*********************** NETWORK PORT NUMBER: " + portNum + " ***********************");
 		} catch (NumberFormatException xcp) {
-			System.err.println("Usage: UDPNetwork <port number>  <lostPercent> <delayedPercent> <errorPercent>\n");
+			System.err.println("Usage: UDPNetwork <port number>  <lostPercent> <delayedPercent> <errorPercent>" +
+					" [link KB/s [queue KB [drr|fifo [senderPort=weight ...]]]] [routes=<file>] [mtu=<bytes>]\n");
 			return;
 		}
 
 		// Construct network and network socket
 		server = new UDPNetwork (portNum, lostPercent, delayedPercent, errorPercent);
-		if (server.createSocket() < 0) {
+		if (server.createSocket() < 0 || routeFile != null && server.setRouteFile(routeFile) < 0) {
 			return;
 		}
+		server.setMaxDatagram(maxDatagram);
+		if (linkRate > 0) {
+			server.setLink(linkRate, queueBytes, fair);
+			weights.forEach(server::setFlowWeight);
+		}
 
 		// Print percentages provided by user
 		System.out.println("Packets Lost: " + lostPercent + "%\t" +
@@ -289,26 +699,4 @@ public class UDPNetwork {
 		server.closeSocket();
 	}
 
-	/**
-	 * Creates a datagram from the specified request and destination host and port information.
-	 *
-	 * @param packet - the  packet request to be submitted to the server
-	 * @param hostname - the hostname of the host receiving this datagram
-	 * @param port - the port number of the host receiving this datagram
-	 *
-	 * @return a complete datagram or null if an error occurred creating the datagram
-	 */
-	private DatagramPacket createDatagramPacket(byte[] packet, String hostname, int port)
-	{
-		InetAddress hostAddr;
-		try {
-			hostAddr = InetAddress.getByName(hostname);
-		} catch (UnknownHostException ex) {
-			System.err.println ("invalid host address");
-			return null;
-		}
-
-		return new DatagramPacket (packet, BUFFER_SIZE, hostAddr, port);
-	}
-
 }
@@ -71,11 +71,6 @@ public class UDPPacket {
         for (int i = 0; i < s.length(); i++) {
             charToInt = (int) s.charAt(i);
             sum = sum + charToInt;
-
-            // Set the end of message
-            if ((int) s.charAt(i) == 46) {
-                isLastMessage = true;
-            }
         }
         
         // Convert to String and make it three byte.
@@ -131,6 +126,7 @@ public class UDPPacket {
 
         _request = request;     // user
         _checksum = generateChecksum(request);  // Generate the checksum
+        isLastMessage = request.indexOf('.') >= 0;  // Set the end of message
         Charset charset = StandardCharsets.US_ASCII;
         String srcIP_Port = _srcHost + " " + _srcPort + " "; // Combine source IP and port to single string
         String destIP_Port = _rcvHost + " " + _rcvPort + " "; // Combine destination IP and port to single string
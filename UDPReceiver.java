@@ -1,9 +1,19 @@
 import java.io.IOException;
-import java.net.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 /**
  * This server program listens for packets being sent over the network
@@ -17,12 +27,72 @@ public class UDPReceiver {
 
 	// Global variables
 	private static final int BUFFER_SIZE = 54;
-	private DatagramSocket   _socket;  // the socket for communication with clients
+	private static final int WINDOW = 256; // segments buffered out of order per connection
+	private static final int ACK_EVERY = 2;  // in-order segments per acknowledgement
+	private static final long ACK_DELAY_MICROS = 1000; // longest time an acknowledgement is held
+	private static final int RECEIVE_BUFFER = 256 * 1024; // receive window in bytes per connection
+	private static final int MAILBOX = 1024; // datagrams waiting for a session worker
+	private static final int BATCH = 64; // datagrams taken from the socket per wake up
+	private static final int MAX_MSS = UDPSegment.MAX_SEGMENT - UDPSegment.HEADER_SIZE - FecEncoder.BLOCK_HEADER; // largest payload a handshake accepts
+	private static final int CHECKSUMS = 1 << UDPSegment.CHECKSUM_CRC32C | 1 << UDPSegment.CHECKSUM_NONE; // algorithms a sender may choose
+	private static final int MAX_ACK_DELAY_MICROS = 10000; // longest acknowledgement delay a sender may ask for
+	private static final int LOG_SEGMENT = 16 * 1024 * 1024; // bytes per message log segment
+	private static final int LOG_INDEX_INTERVAL = 4096; // log bytes between index entries
+	private static final int LOG_COMMIT_MESSAGES = 256; // messages per group commit
+	private static final long LOG_COMMIT_MILLIS = 50; // longest time a logged message is not on the device
+	private static final long HANDSHAKE_TIMEOUT = TimeUnit.SECONDS.toNanos(30); // a SYN answered longer ago is a new handshake
+	private static final long SESSION_IDLE = TimeUnit.MINUTES.toNanos(10); // a session silent this long is closed
+	private static final long SWEEP_MILLIS = 1000; // how often expired handshakes and idle sessions are looked for
+	private static final int  MAX_SESSIONS = 1 << 16; // sessions at once; more are refused until some close
+	private Transport        _transport; // the transport for communication with clients
 	private int              _rcvPort; // the port number for communication with this server
 	private boolean          _continueService; // whether to continue iterations
 	int seqNum = 0;    // sequence number
 	byte[] _packetIn;  // packet received
 	byte[] _packetOut; // packet Sent
+	private final Map<Integer, SessionWorker> _sessions = new ConcurrentHashMap<>(); // windowed senders by connection id
+	private IntFunction<MessageListener> _listeners = PrintListener::new; // creates the listener of a connection
+	private TransferStore _transfers;  // where resumable file transfers go, null to refuse them
+	private LogSink _log;  // where completed messages are also appended, null for none
+	private final Map<Offer, Answer> _handshakes = new LinkedHashMap<>(); // answered SYNs, oldest first; reader thread only
+	private final Map<Integer, Answer> _answers = new HashMap<>(); // the same by assigned connection id, until its first DATA
+	private long _sweptAt = System.nanoTime(); // when handshakes and sessions were last swept; reader thread only
+	private final ByteBuffer _synAck = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE + Handshake.SIZE);
+	private final ByteBuffer _probeAck = ByteBuffer.allocateDirect(UDPSegment.HEADER_SIZE);
+
+	// The connection id a sender offered in its SYN; two senders may offer the same one
+	private static final class Offer {
+		final InetSocketAddress sender;
+		final int               connId;
+
+		Offer(InetSocketAddress sender, int connId) {
+			this.sender = sender;
+			this.connId = connId;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Offer && ((Offer) other).connId == connId && ((Offer) other).sender.equals(sender);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * sender.hashCode() + connId;
+		}
+	}
+
+	// The connection id assigned to an offer, kept so a repeated SYN gets the same answer
+	private static final class Answer {
+		final Offer offer;
+		final int   assigned;
+		final long  answeredAt;
+
+		Answer(Offer offer, int assigned, long answeredAt) {
+			this.offer = offer;
+			this.assigned = assigned;
+			this.answeredAt = answeredAt;
+		}
+	}
 
 	// Constructs a UDPserver object
 	public UDPReceiver (int port) {
@@ -36,14 +106,69 @@ public class UDPReceiver {
 	 */
 	public int createSocket() {
 		try {
-			_socket = new DatagramSocket(_rcvPort);
-		} catch (SocketException ex) {
+			_transport = new DatagramChannelTransport(_rcvPort);
+		} catch (IOException ex) {
 			System.err.println("unable to create and bind socket");
 			return -1;
 		}
 		return 0;
 	}
 
+	/**
+	 * Uses an already bound transport, for example a MemoryTransport, instead of a socket.
+	 *
+	 * @param transport - the transport for communication with clients
+	 */
+	public void setTransport(Transport transport) {
+		_transport = transport;
+	}
+
+	/**
+	 * Sets how messages of windowed senders are delivered. The factory is called once
+	 * per new connection; by default messages are printed as they arrive. Each
+	 * listener is called from the worker thread of its own connection.
+	 *
+	 * @param listeners - creates the listener for a connection id
+	 */
+	public void setListenerFactory(IntFunction<MessageListener> listeners) {
+		_listeners = listeners;
+	}
+
+	/**
+	 * Accepts resumable file transfers into a directory; see TransferStore.
+	 *
+	 * @param dir - the directory name
+	 *
+	 * @return - 0, or -1 if the directory cannot be used
+	 */
+	public int setTransferDirectory(String dir) {
+		try {
+			_transfers = new TransferStore(Paths.get(dir));
+		} catch (IOException ex) {
+			System.err.println("unable to use transfer directory " + dir);
+			return -1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Also appends every completed message to a MessageLog in a directory.
+	 *
+	 * @param dir - the directory name
+	 *
+	 * @return - 0, or -1 if the directory cannot be used
+	 */
+	public int setMessageLog(String dir) {
+		try {
+			_log = new LogSink(new MessageLog(Paths.get(dir), LOG_SEGMENT, LOG_INDEX_INTERVAL), LOG_COMMIT_MESSAGES,
+					LOG_COMMIT_MILLIS);
+		} catch (IOException ex) {
+			System.err.println("unable to use message log directory " + dir);
+			return -1;
+		}
+		return 0;
+	}
+
 	/**
 	 * Run receiver code to receive packets and send responses
 	 */
@@ -52,19 +177,55 @@ public class UDPReceiver {
 		// Run server until gracefully shut down
 		_continueService = true;
 		int totalReceived = 0;
-		String msg = "";
+		StringBuilder msg = new StringBuilder();
 		boolean corrupted = false;
 		System.out.println("Waiting... connect sender.......");
 
 		// While the user is still sending packets
+		ByteBuffer[] batch = new ByteBuffer[BATCH];
+		SocketAddress[] froms = new SocketAddress[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			batch[i] = ByteBuffer.allocateDirect(UDPSegment.MAX_SEGMENT);
+		}
+		int received = 0;
+		int next = 0;
 		while (_continueService) {
-			DatagramPacket newDatagramPacket = receiveRequest();  //receive the packet
+			// Drain every datagram waiting in the socket before waiting again
+			if (next == received) {
+				for (int i = 0; i < received; i++) {
+					batch[i].clear();
+				}
+				long now = System.nanoTime();
+				if (now - _sweptAt >= TimeUnit.MILLISECONDS.toNanos(SWEEP_MILLIS)) {
+					sweep(now);
+					_sweptAt = now;
+				}
+				try {
+					// wake up now and then to sweep while there are sessions
+					received = _transport.receiveBatch(batch, froms, _sessions.isEmpty() ? 0 : SWEEP_MILLIS);
+				} catch (IOException ex) {
+					System.err.println("unable to receive message from server");
+					break;
+				}
+				next = 0;
+				if (received == 0) {
+					continue;  // woke up only to sweep
+				}
+			}
+			ByteBuffer buffer = batch[next];
+			InetSocketAddress from = (InetSocketAddress) froms[next++];
+			buffer.flip();
+			if (UDPSegment.isSegment(buffer)) {
+				handleSegment(buffer, from);
+				continue;
+			}
 			Charset charset = StandardCharsets.US_ASCII;
-			String request = charset.decode(ByteBuffer.wrap(newDatagramPacket.getData()))
+			buffer.clear().limit(BUFFER_SIZE);
+			String request = charset.decode(buffer)
 					.toString(); 		//Convert the packet to string.
 
-			System.out.println("sender IP: " + newDatagramPacket.getAddress().getHostAddress() +
-					" Port: " + newDatagramPacket.getPort());
+			System.out.println("sender IP: " + from.getAddress().getHostAddress() +
+					" Port: " + from.getPort());
 			if (request.equals("<shutdown/>")) {
 				_continueService = false;
 			}
@@ -111,7 +272,7 @@ public class UDPReceiver {
 				if(!corrupted){
 					if(!Objects.equals(payload, "0000"))
 					{
-						msg += payload;
+						msg.append(payload);
 					}
 				}
 
@@ -121,17 +282,16 @@ public class UDPReceiver {
 				_packetOut = new byte[BUFFER_SIZE];
 				_packetOut = packet.getSegment();
 				// Send the response
-				sendResponse(_packetOut, newDatagramPacket.getAddress().getHostName(),
-						newDatagramPacket.getPort());
+				sendResponse(_packetOut, from);
 				// Print the full message when the last packet receive
 				if (rcvPacket.isLastMessage) //&& rcvSeq == seqNum)
 				{
-					String output = msg;
+					String output = msg.toString();
 					System.out.println("--------------------------------------------------");
 					System.out.println("Packet completely received: " + output + "\n");
 
 					// Clear the old message
-					msg = "";
+					msg.setLength(0);
 					totalReceived = 0;
 				} else{
 					System.out.println("Received packet: " + totalReceived  + ", Seq: " + rcvPacket.getSequence() + ", "  + ack + ", Message: " + payload);
@@ -146,56 +306,216 @@ public class UDPReceiver {
 	}
 
 	/**
-	 * Sends a request for service to the server. Do not wait for a reply in this function. This will be
-	 * an asynchronous call to the server.
+	 * Hands a segment from a windowed sender to the worker of its session, creating
+	 * both on the first DATA segment of a connection id no handshake assigned.
+	 * The reader thread never waits for a session.
 	 *
-	 * @param packet - the packet to be sent
-	 * @param hostAddr - the ip or hostname of the server
-	 * @param port - the port number of the server
+	 * @param buffer - the datagram, from 0 to limit
+	 * @param from - the address the datagram came from
+	 */
+	private void handleSegment(ByteBuffer buffer, InetSocketAddress from) {
+		if (UDPSegment.type(buffer) == UDPSegment.TYPE_SYN) {
+			handleSyn(buffer, from);
+			return;
+		}
+		if (UDPSegment.type(buffer) == UDPSegment.TYPE_PROBE) {
+			handleProbe(buffer, from);
+			return;
+		}
+		int connId = UDPSegment.connectionId(buffer);
+		SessionWorker worker = _sessions.get(connId);
+		if (worker != null && !_answers.isEmpty() && UDPSegment.type(buffer) == UDPSegment.TYPE_DATA) {
+			Answer answer = _answers.remove(connId);  // the SYN_ACK got through: no SYN of it is repeated now
+			if (answer != null) {
+				_handshakes.remove(answer.offer);
+			}
+		}
+		if (worker == null) {
+			// A sender that skipped the handshake gets the defaults, but only a sound DATA segment opens a session:
+			// a corrupt, stray or spoofed datagram of another type must not cost a worker thread
+			if (UDPSegment.type(buffer) != UDPSegment.TYPE_DATA || !UDPSegment.verify(buffer)
+					|| _sessions.size() >= MAX_SESSIONS) {
+				return;
+			}
+			worker = _sessions.computeIfAbsent(connId, id -> {
+				System.out.println("New connection " + Integer.toHexString(id) + " from " + UDPSegment.source(buffer));
+				return newWorker(id, ACK_EVERY, ACK_DELAY_MICROS, UDPSegment.CHECKSUM_CRC32C, Handshake.CODEC_DEFLATE);
+			});
+		}
+		worker.post(buffer, from);
+	}
+
+	/**
+	 * Answers a SYN with the parameters this receiver accepts and a connection
+	 * id of its own, creating the session the first time. A repeated SYN, sent
+	 * because the SYN_ACK was lost, gets the same answer again, until the first
+	 * DATA segment of the session arrives or HANDSHAKE_TIMEOUT has passed.
 	 *
-	 * @return - 0, if no error; otherwise, a negative number indicating the error
+	 * @param buffer - the SYN, from 0 to limit
+	 * @param from - the address the datagram came from
 	 */
-	public int sendResponse(byte[] packet, String hostAddr, int port) {
-		
-		// Create datagram packet with provided information
-		DatagramPacket newDatagramPacket = createDatagramPacket(packet, hostAddr, port);
+	private void handleSyn(ByteBuffer buffer, InetSocketAddress from) {
+		if (!UDPSegment.verify(buffer)) {
+			return;
+		}
+		int offered = UDPSegment.connectionId(buffer);
+		InetSocketAddress sender = UDPSegment.source(buffer);
+		InetSocketAddress receiver = UDPSegment.destination(buffer);
+		int attempt = UDPSegment.sequence(buffer);
+		Handshake offer = Handshake.read(UDPSegment.payload(buffer));
+		if (offer == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		expireHandshakes(now);
+		Offer key = new Offer(sender, offered);
+		Answer known = _handshakes.get(key);
+		if (known == null && _sessions.size() >= MAX_SESSIONS) {
+			return;  // the sender retries, or falls back and is refused as well
+		}
+		Handshake answer = offer.accept(MAX_MSS, WINDOW, CHECKSUMS, Handshake.CODEC_DEFLATE, WINDOW / 4,
+				MAX_ACK_DELAY_MICROS, known != null ? known.assigned : newConnectionId(), RECEIVE_BUFFER);
+		if (known == null) {
+			System.out.println("New connection " + Integer.toHexString(answer.connId) + " from " + sender + ": " + answer);
+			Answer answered = new Answer(key, answer.connId, now);
+			_handshakes.put(key, answered);
+			_answers.put(answer.connId, answered);
+			_sessions.put(answer.connId, newWorker(answer.connId, answer.ackEvery, answer.ackDelayMicros,
+					answer.checksum(), answer.codecs));
+		}
+		UDPSegment.writeHeader(_synAck, UDPSegment.TYPE_SYN_ACK, (byte) 0, offered, receiver, sender, 0, attempt);
+		answer.write(_synAck);
+		UDPSegment.seal(_synAck);
+		try {
+			_transport.send(_synAck, from);
+		} catch (IOException ex) {
+			System.err.println("unable to answer the handshake of " + sender);
+		}
+	}
 
-		// With new packet, try to send to destination
-		if (newDatagramPacket != null) {
-			try {
-				_socket.send(newDatagramPacket);
-			} catch (IOException ex) {
-				System.err.println("unable to send message to server");
-				return -1;
+	// Forget the answers older than HANDSHAKE_TIMEOUT, the first ones in the map, and close their sessions:
+	// an answer still here never saw DATA, so its SYN_ACK was lost or its SYN was a stray or a duplicate
+	private void expireHandshakes(long now) {
+		Iterator<Answer> it = _handshakes.values().iterator();
+		while (it.hasNext()) {
+			Answer answer = it.next();
+			if (now - answer.answeredAt < HANDSHAKE_TIMEOUT) {
+				return;
 			}
+			it.remove();
+			_answers.remove(answer.assigned);
+			closeSession(answer.assigned);
+		}
+	}
+
+	// Expire handshakes and close the sessions no datagram came for in SESSION_IDLE
+	private void sweep(long now) {
+		expireHandshakes(now);
+		for (Map.Entry<Integer, SessionWorker> entry : _sessions.entrySet()) {
+			if (now - entry.getValue().getPostedAt() >= SESSION_IDLE && !_answers.containsKey(entry.getKey())) {
+				closeSession(entry.getKey());
+			}
+		}
+	}
 
-			return 0;
+	private void closeSession(int connId) {
+		SessionWorker worker = _sessions.remove(connId);
+		if (worker != null) {
+			System.out.println("Closed connection " + Integer.toHexString(connId) + ": " + worker.getStats());
+			worker.stop();
 		}
-		System.err.println("unable to create message");
-		return -1;
 	}
 
 	/**
-	 * Receives a client's request
+	 * Answers a path MTU probe, whether or not its session exists yet. A probe
+	 * too big for the path never gets here, and its sender takes the missing
+	 * answer as the verdict.
+	 *
+	 * @param buffer - the PROBE, from 0 to limit
+	 * @param from - the address the datagram came from
+	 */
+	private void handleProbe(ByteBuffer buffer, InetSocketAddress from) {
+		if (!UDPSegment.verify(buffer)) {
+			return;
+		}
+		UDPSegment.writeHeader(_probeAck, UDPSegment.TYPE_PROBE_ACK, (byte) 0, UDPSegment.connectionId(buffer),
+				UDPSegment.destination(buffer), UDPSegment.source(buffer), 0, UDPSegment.sequence(buffer));
+		UDPSegment.seal(_probeAck);
+		try {
+			_transport.send(_probeAck, from);
+		} catch (IOException ex) {
+			System.err.println("unable to answer the probe of " + UDPSegment.source(buffer));
+		}
+	}
+
+	// A connection id no session has yet
+	private int newConnectionId() {
+		int connId;
+		do {
+			connId = ThreadLocalRandom.current().nextInt();
+		} while (connId == 0 || _sessions.containsKey(connId));
+		return connId;
+	}
+
+	// Create the session of a connection and the worker running it
+	private SessionWorker newWorker(int connId, int ackEvery, long ackDelayMicros, int checksum, int codecs) {
+		MessageListener listener = _listeners.apply(connId);
+		if (_log != null) {
+			listener = _log.listener(connId, listener);
+		}
+		ReceiverSession session = new ReceiverSession(connId, _transport, WINDOW, ackEvery, ackDelayMicros,
+				RECEIVE_BUFFER, listener);
+		session.setChecksum(checksum);
+		session.setCodecs(codecs);
+		session.setTransfers(_transfers);
+		return new SessionWorker(session, MAILBOX);
+	}
+
+	/*
+	 * Get the statistics of every windowed connection, one per line.
+	 */
+	public String getStats() {
+		StringBuilder stats = new StringBuilder();
+		for (SessionWorker worker : _sessions.values()) {
+			stats.append(worker.getStats()).append('\n');
+		}
+		if (_log != null) {
+			stats.append(_log.getStats()).append('\n');
+		}
+		return stats.toString();
+	}
+
+	/**
+	 * Sends a request for service to the server. Do not wait for a reply in this function. This will be
+	 * an asynchronous call to the server.
+	 *
+	 * @param packet - the packet to be sent
+	 * @param target - the address of the server
 	 *
-	 * @return - the datagram containing the client's request or NULL if an error occured
+	 * @return - 0, if no error; otherwise, a negative number indicating the error
 	 */
-	public DatagramPacket receiveRequest() {
-		byte[] buffer = new byte[BUFFER_SIZE];
+	public int sendResponse(byte[] packet, SocketAddress target) {
 		
-		// Make new packet and store received packet into it
-		DatagramPacket newDatagramPacket = new DatagramPacket(buffer, BUFFER_SIZE);
+		// With new packet, try to send to destination
 		try {
-			_socket.receive(newDatagramPacket);
-		} catch (SocketTimeoutException ignored)   // Socket timeout, print the error.
-		{
-			System.err.println("Unable to receive message from server, it's timeout.");
-		}catch (IOException ex) {
-			System.err.println("unable to receive message from server");
-			return null;
+			_transport.send(ByteBuffer.wrap(packet, 0, BUFFER_SIZE), target);
+		} catch (IOException ex) {
+			System.err.println("unable to send message to server");
+			return -1;
 		}
+		return 0;
+	}
 
-		return newDatagramPacket;
+	/**
+	 * Receives a client's request
+	 *
+	 * @param buffer - the buffer to store the client's request
+	 * @param timeoutMillis - how long to wait, or 0 to wait forever
+	 *
+	 * @return - the address of the client or NULL if the time out elapsed
+	 */
+	public InetSocketAddress receiveRequest(ByteBuffer buffer, long timeoutMillis) throws IOException {
+		return (InetSocketAddress) _transport.receive(buffer, timeoutMillis);
 	}
 
 	/*
@@ -204,7 +524,16 @@ public class UDPReceiver {
 	 * @return - 0, if no error; otherwise, a negative number indicating the error
 	 */
 	public void closeSocket() {
-		_socket.close();
+		_transport.close();
+		for (SessionWorker worker : _sessions.values()) {
+			worker.stop();
+		}
+		if (_transfers != null) {
+			_transfers.close();
+		}
+		if (_log != null) {
+			_log.close();
+		}
 	}
 
 	/**
@@ -216,8 +545,8 @@ public class UDPReceiver {
 		UDPReceiver  server;
 		
 		// Ensure proper arguments are used
-		if (args.length != 1) {
-			System.err.println("Usage: UDPReceiver <port number>\n");
+		if (args.length < 1 || args.length > 3) {
+			System.err.println("Usage: UDPReceiver <port number> [transfer directory|- [message log directory]]\n");
 			return;
 		}
 
@@ -227,13 +556,14 @@ public class UDPReceiver {
 			portNum = Integer.parseInt(args[0]);
 			System.err.println("*********************** RECEIVER PORT NUMBER: " + portNum + " ***********************");
 		} catch (NumberFormatException xcp) {
-			System.err.println("Usage: UDPReceiver <port number>\n");
+			System.err.println("Usage: UDPReceiver <port number> [transfer directory|- [message log directory]]\n");
 			return;
 		}
 
 		// Construct UDPReceiver and socket
 		server = new UDPReceiver (portNum);
-		if (server.createSocket() < 0) {
+		if (server.createSocket() < 0 || args.length >= 2 && !args[1].equals("-") && server.setTransferDirectory(args[1]) < 0
+				|| args.length == 3 && server.setMessageLog(args[2]) < 0) {
 			return;
 		}
 
@@ -242,26 +572,45 @@ public class UDPReceiver {
 		server.closeSocket();
 	}
 
-	/**
-	 * Creates a datagram from the specified request and destination host and port information.
-	 *
-	 * @param packet - the  packet request to be submitted to the server
-	 * @param hostname - the hostname of the host receiving this datagram
-	 * @param port - the port number of the host receiving this datagram
-	 *
-	 * @return a complete datagram or null if an error occurred creating the datagram
+	/*
+	 * Default listener: prints every chunk as soon as it is in order, without
+	 * keeping the message in memory.
 	 */
-	private DatagramPacket createDatagramPacket(byte[] packet, String hostname, int port)
-	{
-		InetAddress hostAddr;
-		try {
-			hostAddr = InetAddress.getByName(hostname);
-		} catch (UnknownHostException ex) {
-			System.err.println ("invalid host address");
-			return null;
+	private static class PrintListener implements MessageListener {
+		private final String _connection;
+		private long _length;  // bytes of the current message so far
+
+		PrintListener(int connId) {
+			_connection = Integer.toHexString(connId);
 		}
 
-		return new DatagramPacket (packet, BUFFER_SIZE, hostAddr, port);
-	}
+		private PrintListener(String connection) {
+			_connection = connection;
+		}
 
+		@Override
+		public MessageListener forStream(int stream) {
+			return new PrintListener(_connection + "/" + stream);
+		}
+
+		@Override
+		public void onSkip() {
+			System.out.println("--------------------------------------------------");
+			System.out.println("Packet abandoned by the sender [" + _connection + "] after " + _length + " bytes\n");
+			_length = 0;
+		}
+
+		@Override
+		public void onData(ByteBuffer data, boolean endOfMessage) {
+			_length += data.remaining();
+			if (data.hasRemaining()) {
+				System.out.println("Received [" + _connection + "]: " + StandardCharsets.US_ASCII.decode(data));
+			}
+			if (endOfMessage) {
+				System.out.println("--------------------------------------------------");
+				System.out.println("Packet completely received [" + _connection + "]: " + _length + " bytes\n");
+				_length = 0;
+			}
+		}
+	}
 }
@@ -0,0 +1,372 @@
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary segment format used by the windowed sender and receiver. The first
+ * byte is a magic value that can never start a 54 byte UDPPacket, so the
+ * network and the receiver can tell both formats apart.
+ *
+ * Header layout (big endian):
+ *   0  magic      1 byte
+ *   1  type       1 byte   DATA, ACK, PARITY, SKIP, QUERY, PROGRESS, SYN, SYN_ACK,
+ *                            PROBE or PROBE_ACK
+ *   2  flags      1 byte   FIN marks the last segment of a message,
+ *                           COMPRESSED a payload coded by the PayloadCodec,
+ *                           FEC a data segment covered by parity segments,
+ *                           START the first segment of a message
+ *   3  connection 4 bytes  chosen by the sender
+ *   7  src host   4 bytes  IPv4 address
+ *   11 src port   2 bytes
+ *   13 dst host   4 bytes  IPv4 address
+ *   17 dst port   2 bytes
+ *   19 seq        4 bytes  segment sequence number
+ *   23 ack        4 bytes  acknowledged sequence number; in a PARITY segment
+ *                           the group size, parity count and parity index
+ *                           (seq is then the first sequence number of the group)
+ *   27 window     4 bytes  free receive buffer in bytes, advertised in ACKs
+ *   31 length     2 bytes  payload length
+ *   33 checksum   4 bytes  CRC32C of the whole segment with this field zero,
+ *                           or 0 on a connection that agreed on CHECKSUM_NONE
+ *   37 stream     2 bytes  stream of a DATA segment, 0 for the default stream
+ *   39 stream seq 4 bytes  sequence number of the segment within its stream
+ *   43 payload
+ *
+ * A SKIP segment tells the receiver that the sender abandoned some messages:
+ * its seq is the point every sequence number before which is either received
+ * or abandoned, and its payload holds SKIP_RANGE_SIZE byte entries of stream
+ * (2 bytes) and the [from, to) stream sequence numbers of one abandoned
+ * message (4 bytes each).
+ *
+ * A QUERY segment asks the receiver about a resumable transfer: its payload
+ * is the transfer id (8 bytes), the first chunk asked about (4 bytes) and
+ * the largest reply payload the sender's path carries (4 bytes). The
+ * PROGRESS reply holds the transfer id, the number of chunks (0 if the
+ * receiver has no record of it), that first chunk, the chunk the listing
+ * stops at, and the missing [start, end) chunk ranges (4 bytes each).
+ *
+ * A SYN segment opens a connection with the parameters the sender offers,
+ * and the SYN_ACK answers with the ones the receiver accepted; both payloads
+ * are a Handshake. The SYN carries the attempt number in seq, which the
+ * SYN_ACK echoes in ack, and both carry the id the sender picked; every
+ * later segment carries the id the receiver assigned. SYN and SYN_ACK are
+ * always checked with CRC32C.
+ *
+ * A PROBE segment finds out whether a datagram of its size gets through the
+ * path: its payload is padding, its seq a probe number that the PROBE_ACK
+ * echoes in ack. Both are always checked with CRC32C.
+ *
+ * @author Chakrya Ros
+ * @author Trevor Robinson
+ * @info Course COP5518
+ */
+public final class UDPSegment {
+
+	public static final byte MAGIC    = (byte) 0xA5;
+	public static final byte TYPE_DATA = 1;
+	public static final byte TYPE_ACK  = 2;
+	public static final byte TYPE_PARITY = 3;
+	public static final byte TYPE_SKIP = 4;
+	public static final byte TYPE_QUERY = 5;
+	public static final byte TYPE_PROGRESS = 6;
+	public static final byte TYPE_SYN = 7;
+	public static final byte TYPE_SYN_ACK = 8;
+	public static final byte TYPE_PROBE = 9;
+	public static final byte TYPE_PROBE_ACK = 10;
+
+	public static final byte FLAG_FIN = 0x01; // last segment of a message
+	public static final byte FLAG_COMPRESSED = 0x02; // payload is compressed
+	public static final byte FLAG_FEC = 0x04; // data segment protected by parity
+	public static final byte FLAG_START = 0x08; // first segment of a message
+
+	public static final int HEADER_SIZE  = 43;
+	public static final int MAX_SEGMENT  = 65507; // largest UDP payload over IPv4
+	public static final int DEFAULT_MSS  = 1024;  // payload bytes per data segment
+	public static final int SKIP_RANGE_SIZE = 10; // stream, from and to of one abandoned message
+
+	public static final int CHECKSUM_CRC32C = 0; // checksum algorithms, by preference
+	public static final int CHECKSUM_NONE   = 1; // rely on the UDP checksum alone
+
+	private static final int TYPE_OFF     = 1;
+	private static final int FLAGS_OFF    = 2;
+	private static final int CONN_OFF     = 3;
+	private static final int SRC_HOST_OFF = 7;
+	private static final int SRC_PORT_OFF = 11;
+	private static final int DST_HOST_OFF = 13;
+	private static final int DST_PORT_OFF = 17;
+	private static final int SEQ_OFF      = 19;
+	private static final int ACK_OFF      = 23;
+	private static final int WINDOW_OFF   = 27;
+	private static final int LENGTH_OFF   = 31;
+	private static final int CHECKSUM_OFF = 33;
+	private static final int STREAM_OFF   = 37;
+	private static final int STREAM_SEQ_OFF = 39;
+
+	private UDPSegment() {
+	}
+
+	/*
+	 * Check whether a received datagram uses this format.
+	 *
+	 * @param buf - the datagram, from 0 to limit
+	 * @return true if the datagram starts with the magic byte
+	 */
+	public static boolean isSegment(ByteBuffer buf) {
+		return buf.limit() >= HEADER_SIZE && buf.get(0) == MAGIC;
+	}
+
+	/*
+	 * Write a header at the start of a buffer and leave the position after it.
+	 *
+	 * @param buf - the buffer receiving the segment
+	 * @param type - DATA or ACK
+	 * @param flags - FIN or 0
+	 * @param connId - the connection this segment belongs to
+	 * @param src - the address of the host sending this segment
+	 * @param dst - the address of the host receiving this segment
+	 * @param seq - the sequence number
+	 * @param ack - the acknowledged sequence number
+	 */
+	public static void writeHeader(ByteBuffer buf, byte type, byte flags, int connId, InetSocketAddress src,
+								   InetSocketAddress dst, int seq, int ack) {
+		buf.clear();
+		buf.put(MAGIC);
+		buf.put(type);
+		buf.put(flags);
+		buf.putInt(connId);
+		buf.put(src.getAddress().getAddress());
+		buf.putShort((short) src.getPort());
+		buf.put(dst.getAddress().getAddress());
+		buf.putShort((short) dst.getPort());
+		buf.putInt(seq);
+		buf.putInt(ack);
+		buf.putInt(0);
+		buf.putShort((short) 0);
+		buf.putInt(0);
+		buf.putShort((short) 0);
+		buf.putInt(0);
+	}
+
+	/*
+	 * Set the stream of a data segment being written.
+	 *
+	 * @param buf - the buffer holding the header
+	 * @param stream - the stream id
+	 * @param streamSeq - the sequence number of the segment within the stream
+	 */
+	public static void setStream(ByteBuffer buf, int stream, int streamSeq) {
+		buf.putShort(STREAM_OFF, (short) stream);
+		buf.putInt(STREAM_SEQ_OFF, streamSeq);
+	}
+
+	/*
+	 * Add a flag to a segment being written.
+	 *
+	 * @param buf - the buffer holding the header
+	 * @param flag - the flag to set
+	 */
+	public static void addFlag(ByteBuffer buf, byte flag) {
+		buf.put(FLAGS_OFF, (byte) (buf.get(FLAGS_OFF) | flag));
+	}
+
+	/*
+	 * Set the advertised receive window of a segment being written.
+	 *
+	 * @param buf - the buffer holding the header
+	 * @param window - free receive buffer in bytes
+	 */
+	public static void setWindow(ByteBuffer buf, int window) {
+		buf.putInt(WINDOW_OFF, window);
+	}
+
+	/*
+	 * Finish a segment: fill in the payload length, compute the checksum and flip the buffer for sending.
+	 *
+	 * @param buf - the buffer holding header and payload up to its position
+	 */
+	public static void seal(ByteBuffer buf) {
+		seal(buf, CHECKSUM_CRC32C);
+	}
+
+	/*
+	 * Finish a segment with the checksum algorithm of its connection.
+	 *
+	 * @param buf - the buffer holding header and payload up to its position
+	 * @param algorithm - CHECKSUM_CRC32C or CHECKSUM_NONE
+	 */
+	public static void seal(ByteBuffer buf, int algorithm) {
+		buf.flip();
+		buf.putShort(LENGTH_OFF, (short) (buf.limit() - HEADER_SIZE));
+		buf.putInt(CHECKSUM_OFF, 0);
+		if (algorithm == CHECKSUM_CRC32C) {
+			buf.putInt(CHECKSUM_OFF, checksum(buf));
+		}
+	}
+
+	/*
+	 * Check that a received segment is complete and not corrupt.
+	 *
+	 * @param buf - the datagram, from 0 to limit
+	 * @return true if the length fits the datagram and the checksum matches
+	 */
+	public static boolean verify(ByteBuffer buf) {
+		return verify(buf, CHECKSUM_CRC32C);
+	}
+
+	/*
+	 * Check a received segment with the checksum algorithm of its connection.
+	 *
+	 * @param buf - the datagram, from 0 to limit
+	 * @param algorithm - CHECKSUM_CRC32C or CHECKSUM_NONE
+	 * @return true if the length fits the datagram and the checksum matches
+	 */
+	public static boolean verify(ByteBuffer buf, int algorithm) {
+		if (HEADER_SIZE + length(buf) != buf.limit()) {
+			return false;
+		}
+		if (algorithm == CHECKSUM_NONE) {
+			return true;
+		}
+		int expected = buf.getInt(CHECKSUM_OFF);
+		buf.putInt(CHECKSUM_OFF, 0);
+		int actual = checksum(buf);
+		buf.putInt(CHECKSUM_OFF, expected);
+		return expected == actual;
+	}
+
+	// CRC32C over the whole segment, leaving position and limit unchanged
+	private static int checksum(ByteBuffer buf) {
+		int position = buf.position();
+		CRC32C crc = new CRC32C();
+		buf.position(0);
+		crc.update(buf);
+		buf.position(position);
+		return (int) crc.getValue();
+	}
+
+	public static byte type(ByteBuffer buf) {
+		return buf.get(TYPE_OFF);
+	}
+
+	public static byte flags(ByteBuffer buf) {
+		return buf.get(FLAGS_OFF);
+	}
+
+	public static boolean isFin(ByteBuffer buf) {
+		return (buf.get(FLAGS_OFF) & FLAG_FIN) != 0;
+	}
+
+	public static boolean isCompressed(ByteBuffer buf) {
+		return (buf.get(FLAGS_OFF) & FLAG_COMPRESSED) != 0;
+	}
+
+	/*
+	 * Pack the group of a parity segment into its ack field.
+	 *
+	 * @param groupSize - the number of data segments in the group
+	 * @param parityCount - the number of parity segments of the group
+	 * @param index - which of them this is
+	 */
+	public static int parityField(int groupSize, int parityCount, int index) {
+		return groupSize << 16 | parityCount << 8 | index;
+	}
+
+	public static int groupSize(ByteBuffer buf) {
+		return buf.getShort(ACK_OFF) & 0xFFFF;
+	}
+
+	public static int parityIndex(ByteBuffer buf) {
+		return buf.get(ACK_OFF + 3) & 0xFF;
+	}
+
+	public static int window(ByteBuffer buf) {
+		return buf.getInt(WINDOW_OFF);
+	}
+
+	public static int length(ByteBuffer buf) {
+		return buf.getShort(LENGTH_OFF) & 0xFFFF;
+	}
+
+	public static int stream(ByteBuffer buf) {
+		return buf.getShort(STREAM_OFF) & 0xFFFF;
+	}
+
+	public static int streamSequence(ByteBuffer buf) {
+		return buf.getInt(STREAM_SEQ_OFF);
+	}
+
+	public static int connectionId(ByteBuffer buf) {
+		return buf.getInt(CONN_OFF);
+	}
+
+	public static int sequence(ByteBuffer buf) {
+		return buf.getInt(SEQ_OFF);
+	}
+
+	public static int acknowledgement(ByteBuffer buf) {
+		return buf.getInt(ACK_OFF);
+	}
+
+	public static InetSocketAddress source(ByteBuffer buf) {
+		return address(buf, SRC_HOST_OFF, SRC_PORT_OFF);
+	}
+
+	/*
+	 * Get the source host and port packed in one number, to compare sources without parsing them.
+	 */
+	public static long sourceKey(ByteBuffer buf) {
+		return (buf.getInt(SRC_HOST_OFF) & 0xFFFFFFFFL) << 16 | (buf.getShort(SRC_PORT_OFF) & 0xFFFF);
+	}
+
+	/*
+	 * The destination address packed into one long, to recognise a repeated
+	 * destination without building an InetSocketAddress.
+	 */
+	public static long destinationKey(ByteBuffer buf) {
+		return (buf.getInt(DST_HOST_OFF) & 0xFFFFFFFFL) << 16 | (buf.getShort(DST_PORT_OFF) & 0xFFFF);
+	}
+
+	public static InetSocketAddress destination(ByteBuffer buf) {
+		return address(buf, DST_HOST_OFF, DST_PORT_OFF);
+	}
+
+	/*
+	 * Position the buffer at the payload of a received segment.
+	 *
+	 * @param buf - the datagram, from 0 to limit
+	 * @return the same buffer, from the first to the last payload byte
+	 */
+	public static ByteBuffer payload(ByteBuffer buf) {
+		return buf.limit(HEADER_SIZE + length(buf)).position(HEADER_SIZE);
+	}
+
+	// Read an IPv4 address and port out of the header
+	private static InetSocketAddress address(ByteBuffer buf, int hostOff, int portOff) {
+		byte[] host = new byte[4];
+		buf.get(hostOff, host);
+		try {
+			return new InetSocketAddress(InetAddress.getByAddress(host), buf.getShort(portOff) & 0xFFFF);
+		} catch (UnknownHostException ex) {
+			throw new IllegalArgumentException(ex);
+		}
+	}
+
+	/*
+	 * Resolve a host to an address that fits in the header.
+	 *
+	 * @param hostname - the ip or hostname of the host
+	 * @param port - the port number of the host
+	 * @return the resolved IPv4 address
+	 */
+	public static InetSocketAddress ipv4(String hostname, int port) throws UnknownHostException {
+		for (InetAddress addr : InetAddress.getAllByName(hostname.trim())) {
+			if (addr instanceof Inet4Address) {
+				return new InetSocketAddress(addr, port);
+			}
+		}
+		throw new UnknownHostException("no IPv4 address for " + hostname);
+	}
+}
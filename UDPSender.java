@@ -1,9 +1,24 @@
 import java.io.IOException;
-import java.net.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Sender Packet object.
@@ -14,20 +29,56 @@ import java.util.Objects;
 public class UDPSender {
 
 	private static final int BUFFER_SIZE = 54;
-	private DatagramSocket _socket; // the socket for communication with a server
+	private static final int TIMEOUT = 10000; // receive time out in milliseconds
+	private static final int WINDOW = 64;  // segments in flight
+	private static final int QUEUE_CAPACITY = 256; // messages waiting to be sent
+	private static final int ACK_BATCH = 64; // acknowledgements taken from a socket per wake up
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // longest sleep of the I/O thread
+	private static final long QUERY_TIMEOUT_SECONDS = 30; // longest wait for the progress of a transfer
+	private static final int SYN_ATTEMPTS = 4; // SYNs sent before falling back to the defaults
+	private static final long SYN_TIMEOUT_MILLIS = 250; // wait for the first SYN_ACK, doubled per attempt
+	private static final int ACK_EVERY = 2; // in-order segments per acknowledgement asked for
+	private static final int ACK_DELAY_MICROS = 1000; // longest acknowledgement delay asked for
+	private static final int PROBE_MSS = 8192; // largest segment path probing tries by default
+	private static final long REPROBE_MILLIS = 60000; // time between two path searches
+	private Transport _transport; // the transport for communication with a server
 	private String _srcPort;    // sender host number.
 	private String _srcHost;    // sender port number.
 	private String _rcvHost; // receiver host name.
 	private String _rcvPort;  // receiver port number.
 	private String _networkHost; // network name.
 	private int _networkPort; // network port number.
+	private InetSocketAddress _networkAddress; // resolved network address.
 	private String _request;  // request string.
 	byte[] _packetOut;
 
 	private String _seqNum;
 
 	private String _ack;
-	DatagramPacket _newDatagramPacket;
+
+	private SenderSession _session;     // windowed sending state, null until started
+	private Thread _ioThread;           // transmits and retransmits segments
+	private final List<Thread> _ackThreads = new ArrayList<>(); // read acknowledgements, one per stripe
+	private volatile boolean _running;
+
+	private int _stripeCount = 1;       // sockets the windowed sender stripes over
+	private String[] _stripeNetworks = new String[0]; // "host:port" of each stripe's network, round robin
+	private final List<Transport> _stripeTransports = new ArrayList<>();   // index 0 is _transport
+	private final List<InetSocketAddress> _stripeHops = new ArrayList<>(); // index 0 is _networkAddress
+	private boolean _pacing;            // spread each window over the round trip time
+	private long _rateLimit;            // hard cap in bytes per second, 0 for none
+	private PayloadCodec _codec;        // compresses segment payloads, null for none
+	private int _fecGroup;              // data segments per parity group, 0 for no forward error correction
+	private int _fecParity;             // parity segments per group
+	private boolean _fecAdaptive;       // adapt the parity count to the loss rate
+	private boolean _handshake = true;  // agree on the connection parameters before sending
+	private int _mss = UDPSegment.DEFAULT_MSS; // payload bytes per segment offered in the handshake
+	private int _checksums = 1 << UDPSegment.CHECKSUM_CRC32C; // checksum algorithms offered
+	private int _ackEvery = ACK_EVERY;  // acknowledgement timing offered
+	private int _ackDelayMicros = ACK_DELAY_MICROS;
+	private long _handshakeRtt;         // round trip time of the answered SYN in nanoseconds
+	private int _probeMss;              // largest segment path probing tries, 0 for no probing
+	private long _reprobeMillis = REPROBE_MILLIS;
 
 	/**
 	 * Constructs a UDPSender object.
@@ -47,9 +98,23 @@ public class UDPSender {
 	 * @return - 0 or a negative number describing an error code if the connection could not be established
 	 */
 	public int createSocket() {
+		int port = Integer.parseInt(_srcPort);
 		try {
-			_socket = new DatagramSocket(Integer.parseInt(_srcPort));
-		} catch (SocketException ex) {
+			if (setTransport(new DatagramChannelTransport(port)) < 0) {
+				return -1;
+			}
+			// Striped: one more socket on each following port
+			for (int i = 1; i < _stripeCount; i++) {
+				String network = _stripeNetworks.length == 0
+						? _networkHost + ":" + _networkPort
+						: _stripeNetworks[i % _stripeNetworks.length];
+				int colon = network.lastIndexOf(':');
+				if (addStripe(new DatagramChannelTransport(port + i), network.substring(0, colon),
+						Integer.parseInt(network.substring(colon + 1))) < 0) {
+					return -1;
+				}
+			}
+		} catch (IOException ex) {
 			System.err.println("unable to create and bind socket");
 			return -1;
 		}
@@ -57,48 +122,431 @@ public class UDPSender {
 	}
 
 	/**
-	 * Sends a request for service to the server. Do not wait for a reply in this function. This will be
-	 * an asynchronous call to the server.
+	 * Stripes the windowed sender over several sockets, bound to consecutive ports
+	 * from the sender port, so one transfer can use several cores and networks.
+	 * Must be called before createSocket.
+	 *
+	 * @param stripes - the number of sockets
+	 * @param networks - "host:port" of the network for each stripe, used round robin;
+	 *                   none to send every stripe through the network given to the constructor
+	 */
+	public void setStripes(int stripes, String... networks) {
+		_stripeCount = Math.max(1, stripes);
+		_stripeNetworks = networks;
+	}
+
+	/**
+	 * Paces the windowed sender so a window is spread over the round trip time
+	 * instead of overflowing the network's socket buffer. Must be called before start.
+	 *
+	 * @param pacing - true to pace transmissions
+	 * @param bytesPerSecond - hard cap on the sending rate, 0 for none
+	 */
+	public void setPacing(boolean pacing, long bytesPerSecond) {
+		_pacing = pacing;
+		_rateLimit = bytesPerSecond;
+	}
+
+	/**
+	 * Compresses segment payloads that shrink enough to be worth it. Must be called before start.
+	 *
+	 * @param codec - the codec, e.g. a DeflateCodec, or null to send payloads raw
+	 */
+	public void setCompression(PayloadCodec codec) {
+		_codec = codec;
+	}
+
+	/**
+	 * Sends parity segments so the receiver can rebuild lost segments without a
+	 * retransmission. Must be called before start.
+	 *
+	 * @param groupSize - data segments per group, 0 for no forward error correction
+	 * @param parity - parity segments per group: 1 for XOR, more for Reed-Solomon
+	 * @param adaptive - whether to raise and lower the parity count with the loss rate
+	 */
+	public void setFec(int groupSize, int parity, boolean adaptive) {
+		_fecGroup = groupSize;
+		_fecParity = parity;
+		_fecAdaptive = adaptive;
+	}
+
+	/**
+	 * Sets what start offers in the handshake. The receiver may accept less;
+	 * without a handshake, or when no answer comes, the defaults are used.
+	 * Must be called before start.
+	 *
+	 * @param handshake - whether to agree on the parameters before sending
+	 * @param mss - payload bytes per data segment
+	 * @param checksums - a bit per acceptable UDPSegment.CHECKSUM_ algorithm, preferred first
+	 * @param ackEvery - in-order segments per acknowledgement
+	 * @param ackDelayMicros - how long the receiver may hold an acknowledgement
+	 */
+	public void setHandshake(boolean handshake, int mss, int checksums, int ackEvery, int ackDelayMicros) {
+		_handshake = handshake;
+		_mss = mss;
+		_checksums = checksums;
+		_ackEvery = ackEvery;
+		_ackDelayMicros = ackDelayMicros;
+	}
+
+	/**
+	 * Probes the path for the largest segment that gets through and sends
+	 * segments of that size, searching again every reprobeMillis. The
+	 * handshake offers maxMss as the segment size; the receiver may lower it.
+	 * Must be called before start.
+	 *
+	 * @param maxMss - the largest payload to try, 0 to turn probing off
+	 * @param reprobeMillis - time between two searches
+	 */
+	public void setPathProbing(int maxMss, long reprobeMillis) {
+		_probeMss = maxMss;
+		_reprobeMillis = reprobeMillis;
+	}
+
+	/**
+	 * Uses an already bound transport, for example a MemoryTransport, instead of a socket.
+	 *
+	 * @param transport - the transport for communication with the network
+	 *
+	 * @return - 0 or a negative number if the network address could not be resolved
+	 */
+	public int setTransport(Transport transport) {
+		try {
+			_networkAddress = Transport.resolve(_networkHost, _networkPort);
+		} catch (UnknownHostException ex) {
+			System.err.println ("invalid host address");
+			return -1;
+		}
+		_transport = transport;
+		_stripeTransports.clear();
+		_stripeHops.clear();
+		_stripeTransports.add(transport);
+		_stripeHops.add(_networkAddress);
+		return 0;
+	}
+
+	/**
+	 * Adds one more stripe on an already bound transport, for example a MemoryTransport.
+	 *
+	 * @param transport - the transport of the stripe
+	 * @param networkHost - the network this stripe sends through
+	 * @param networkPort - the port of that network
+	 *
+	 * @return - 0 or a negative number if the network address could not be resolved
+	 */
+	public int addStripe(Transport transport, String networkHost, int networkPort) {
+		try {
+			_stripeHops.add(Transport.resolve(networkHost, networkPort));
+		} catch (UnknownHostException ex) {
+			System.err.println ("invalid host address");
+			return -1;
+		}
+		_stripeTransports.add(transport);
+		return 0;
+	}
+
+	/**
+	 * Starts the windowed sender: one thread transmits and retransmits segments,
+	 * another one per stripe reads acknowledgements. Messages are then sent with send.
+	 * The connection parameters are agreed on in a handshake first, unless it is
+	 * turned off. The legacy StartRequest must not be used on a started sender.
 	 *
 	 * @return - 0, if no error; otherwise, a negative number indicating the error
 	 */
-	public int sendRequest(){
+	public int start() {
+		SenderSession.Stripe[] stripes = new SenderSession.Stripe[_stripeTransports.size()];
+		InetSocketAddress dst;
+		try {
+			for (int i = 0; i < stripes.length; i++) {
+				Transport transport = _stripeTransports.get(i);
+				int port = i == 0
+						? Integer.parseInt(_srcPort)
+						: ((InetSocketAddress) transport.localAddress()).getPort();
+				stripes[i] = new SenderSession.Stripe(transport, UDPSegment.ipv4(_srcHost, port), _stripeHops.get(i));
+			}
+			dst = UDPSegment.ipv4(_rcvHost, Integer.parseInt(_rcvPort));
+		} catch (UnknownHostException ex) {
+			System.err.println ("invalid host address");
+			return -1;
+		}
+		int connId = ThreadLocalRandom.current().nextInt();
+		Handshake agreed = null;
+		if (_handshake) {
+			agreed = handshake(stripes[0].src, dst, connId);
+			if (agreed == null) {
+				System.err.println("no answer to the handshake, using the defaults");
+			}
+		}
+		if (agreed != null) {
+			_session = new SenderSession(agreed.connId, stripes, dst, agreed.window, QUEUE_CAPACITY, agreed.mss);
+			_session.setNegotiated(agreed.checksum(), agreed.buffer, _handshakeRtt);
+			System.out.println("Connection " + Integer.toHexString(agreed.connId) + ": " + agreed + ", rtt "
+					+ TimeUnit.NANOSECONDS.toMicros(_handshakeRtt) + " us");
+		} else {
+			_session = new SenderSession(connId, stripes, dst, WINDOW, QUEUE_CAPACITY);
+		}
+		_session.setPacing(_pacing);
+		_session.setRateLimit(_rateLimit);
+		_session.setCompression(agreed == null || (agreed.codecs & Handshake.CODEC_DEFLATE) != 0 ? _codec : null);
+		_session.setFec(_fecGroup, _fecParity, _fecAdaptive);
+		if (_probeMss > 0) {
+			_session.setPathProbing(TimeUnit.MILLISECONDS.toNanos(_reprobeMillis));
+		}
+		_running = true;
+		_ioThread = new Thread(this::transmitLoop, "sender-io");
+		_ioThread.setDaemon(true);
+		_session.setWakeup(() -> LockSupport.unpark(_ioThread));
+		_ioThread.start();
+		for (int i = 0; i < stripes.length; i++) {
+			Transport transport = _stripeTransports.get(i);
+			Thread ackThread = new Thread(() -> ackLoop(transport), "sender-ack-" + _ackThreads.size());
+			ackThread.setDaemon(true);
+			ackThread.start();
+			_ackThreads.add(ackThread);
+		}
+		return 0;
+	}
+
+	/**
+	 * Offers the connection parameters in a SYN until a SYN_ACK answers, waiting
+	 * twice as long after every attempt. The answer to any attempt is taken, and
+	 * the time since that attempt is the first round trip sample.
+	 *
+	 * @param src - the address of this sender
+	 * @param dst - the address of the receiver
+	 * @param connId - the id identifying this sender until the receiver assigns one
+	 *
+	 * @return - the accepted parameters, or null if no answer came
+	 */
+	private Handshake handshake(InetSocketAddress src, InetSocketAddress dst, int connId) {
+		Handshake offer = new Handshake(Math.max(_mss, _probeMss), WINDOW, _checksums, _codec != null ? Handshake.CODEC_DEFLATE : 0,
+				_ackEvery, _ackDelayMicros, 0, 0);
+		ByteBuffer syn = ByteBuffer.allocate(UDPSegment.HEADER_SIZE + Handshake.SIZE);
+		ByteBuffer reply = ByteBuffer.allocate(UDPSegment.MAX_SEGMENT);
+		long[] sentAt = new long[SYN_ATTEMPTS];
+		long timeout = SYN_TIMEOUT_MILLIS;
+		try {
+			for (int attempt = 0; attempt < SYN_ATTEMPTS; attempt++, timeout *= 2) {
+				UDPSegment.writeHeader(syn, UDPSegment.TYPE_SYN, (byte) 0, connId, src, dst, attempt, 0);
+				offer.write(syn);
+				UDPSegment.seal(syn);
+				sentAt[attempt] = System.nanoTime();
+				_transport.send(syn, _networkAddress);
+				long deadline = sentAt[attempt] + TimeUnit.MILLISECONDS.toNanos(timeout);
+				long left;
+				while ((left = deadline - System.nanoTime()) > 0) {
+					reply.clear();
+					if (_transport.receive(reply, Math.max(1, TimeUnit.NANOSECONDS.toMillis(left))) == null) {
+						break;
+					}
+					long now = System.nanoTime();
+					reply.flip();
+					if (!UDPSegment.isSegment(reply) || !UDPSegment.verify(reply)
+							|| UDPSegment.type(reply) != UDPSegment.TYPE_SYN_ACK
+							|| UDPSegment.connectionId(reply) != connId) {
+						continue;  // stray datagram of an earlier connection
+					}
+					int echoed = UDPSegment.acknowledgement(reply);
+					Handshake answer = Handshake.read(UDPSegment.payload(reply));
+					if (answer != null && echoed >= 0 && echoed <= attempt) {
+						_handshakeRtt = now - sentAt[echoed];
+						return answer;
+					}
+				}
+			}
+		} catch (IOException ex) {
+			System.err.println("unable to send the handshake: " + ex);
+		}
+		return null;
+	}
+
+	/**
+	 * Sends a message without waiting for it to be acknowledged. Many messages can be
+	 * in flight at once; the call only blocks while the send queue is full.
+	 *
+	 * @param message - the bytes to send, from position to limit; must not change until done
+	 *
+	 * @return a future completed when the whole message is acknowledged
+	 */
+	public CompletableFuture<Void> send(ByteBuffer message) throws InterruptedException {
+		if (_session == null) {
+			throw new IllegalStateException("sender not started");
+		}
+		return _session.send(message);
+	}
+
+	/**
+	 * Sends a message on a stream of the session. Streams are delivered
+	 * independently, so a message on one stream never waits for a lost segment
+	 * of another.
+	 *
+	 * @param stream - the stream id, from 0 to SenderSession.MAX_STREAM
+	 * @param message - the bytes to send, from position to limit; must not change until done
+	 *
+	 * @return a future completed when the whole message is acknowledged
+	 */
+	public CompletableFuture<Void> send(int stream, ByteBuffer message) throws InterruptedException {
+		if (_session == null) {
+			throw new IllegalStateException("sender not started");
+		}
+		return _session.send(stream, message);
+	}
 
-		_newDatagramPacket = createDatagramPacket(_packetOut, _networkHost, _networkPort);
-		if (_newDatagramPacket != null) {
+	/**
+	 * Sends a message on a stream with a reliability policy, e.g. a lifetime
+	 * for data that is useless once stale. An abandoned message is not resent
+	 * and the receiver skips past it.
+	 *
+	 * @param stream - the stream id, from 0 to SenderSession.MAX_STREAM
+	 * @param message - the bytes to send, from position to limit; must not change until done
+	 * @param reliability - when to give up on the message
+	 *
+	 * @return a future completed when the whole message is acknowledged, or
+	 *         failed with a CancellationException when it was abandoned
+	 */
+	public CompletableFuture<Void> send(int stream, ByteBuffer message, Reliability reliability)
+			throws InterruptedException {
+		if (_session == null) {
+			throw new IllegalStateException("sender not started");
+		}
+		return _session.send(stream, message, reliability);
+	}
+
+	/**
+	 * Sends a file as a resumable transfer. The receiver is asked first which
+	 * chunks it already has, so a transfer interrupted by either side resumes
+	 * with the missing chunks only. The receiver needs a transfer directory.
+	 *
+	 * @param file - the file to send
+	 * @param transferId - identifies the transfer across restarts, e.g. transferId(file)
+	 *
+	 * @return a future completed when every missing chunk is acknowledged
+	 */
+	public CompletableFuture<Void> sendFile(Path file, long transferId) throws IOException, InterruptedException {
+		if (_session == null) {
+			throw new IllegalStateException("sender not started");
+		}
+		long length = Files.size(file);
+		int chunks = (int) ((length + TransferStore.CHUNK_SIZE - 1) / TransferStore.CHUNK_SIZE);
+		int[] missing;
+		try {
+			missing = _session.queryProgress(transferId).orTimeout(QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS).get();
+		} catch (ExecutionException ex) {
+			throw new IOException("no progress from the receiver", ex.getCause());
+		}
+		if (missing == null) {
+			missing = new int[] { 0, chunks };  // never started
+		}
+		List<CompletableFuture<Void>> sent = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for (int i = 0; i < missing.length; i += 2) {
+				for (int chunk = missing[i]; chunk < Math.min(missing[i + 1], chunks); chunk++) {
+					long position = (long) chunk * TransferStore.CHUNK_SIZE;
+					int size = (int) Math.min(TransferStore.CHUNK_SIZE, length - position);
+					ByteBuffer message = ByteBuffer.allocate(TransferStore.CHUNK_HEADER + size);
+					message.putLong(transferId).putLong(length).putInt(TransferStore.CHUNK_SIZE).putInt(chunk);
+					while (message.hasRemaining()) {
+						if (channel.read(message, position + message.position() - TransferStore.CHUNK_HEADER) < 0) {
+							throw new IOException(file + " is shorter than " + length + " bytes");
+						}
+					}
+					sent.add(_session.send(TransferStore.STREAM, message.flip()));
+				}
+			}
+		}
+		return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * A transfer id for a file that stays the same while the file does not
+	 * change, so a restarted sender resumes the same transfer.
+	 *
+	 * @param file - the file
+	 *
+	 * @return - an id from its path, length and modification time
+	 */
+	public static long transferId(Path file) throws IOException {
+		long id = file.toAbsolutePath().normalize().toString().hashCode();
+		id = id * 0x9E3779B97F4A7C15L + Files.size(file);
+		id = id * 0x9E3779B97F4A7C15L + Files.getLastModifiedTime(file).toMillis();
+		return id ^ id >>> 29;
+	}
+
+	/*
+	 * Set the priority and weight of a stream; see SenderSession.setStreamPriority.
+	 */
+	public void setStreamPriority(int stream, int priority, int weight) {
+		if (_session == null) {
+			throw new IllegalStateException("sender not started");
+		}
+		_session.setStreamPriority(stream, priority, weight);
+	}
+
+	/*
+	 * Get the statistics of the windowed sender.
+	 */
+	public String getStats() {
+		return _session == null ? "" : _session.getStats();
+	}
+
+	// Transmit new segments and retransmit expired ones until closed
+	private void transmitLoop() {
+		while (_running) {
+			long wait;
 			try {
-				_socket.send(_newDatagramPacket);
-				// set time out.
-				_socket.setSoTimeout(10000);
+				wait = _session.poll(System.nanoTime());
 			} catch (IOException ex) {
 				System.err.println("unable to send message to server");
-				return -1;
+				_session.abort(ex);
+				return;
+			}
+			// parkNanos sleeps on a high resolution timer; the pacer's burst covers its late wake ups
+			LockSupport.parkNanos(this, Math.min(wait, IDLE_NANOS));
+		}
+	}
+
+	// Hand every segment received on one stripe to the session until closed
+	private void ackLoop(Transport transport) {
+		ByteBuffer[] batch = new ByteBuffer[ACK_BATCH];
+		SocketAddress[] froms = new SocketAddress[ACK_BATCH];
+		for (int i = 0; i < ACK_BATCH; i++) {
+			batch[i] = ByteBuffer.allocateDirect(UDPSegment.MAX_SEGMENT);
+		}
+		while (_running) {
+			int received;
+			try {
+				received = transport.receiveBatch(batch, froms, 0);
+			} catch (IOException ex) {
+				if (_running) {
+					System.err.println("Unable to receive message from server: " + ex);
+				}
+				return;
+			}
+			for (int i = 0; i < received; i++) {
+				ByteBuffer buffer = batch[i];
+				buffer.flip();
+				if (UDPSegment.isSegment(buffer)) {
+					_session.onSegment(buffer, System.nanoTime());
+				}
+				buffer.clear();
 			}
-			return 0;
 		}
-		System.err.println("unable to send message to server");
-		return -1;
 	}
 
 	/**
-	 * Creates a datagram from the specified request and destination host and port information.
-	 *
-	 * @param packet - the request to be submitted to the server
-	 * @param hostname - the hostname of the host receiving this datagram
-	 * @param port - the port number of the host receiving this datagram
+	 * Sends a request for service to the server. Do not wait for a reply in this function. This will be
+	 * an asynchronous call to the server.
 	 *
-	 * @return a complete datagram or null if an error occurred creating the datagram
+	 * @return - 0, if no error; otherwise, a negative number indicating the error
 	 */
-	private DatagramPacket createDatagramPacket(byte[] packet, String hostname, int port)
-	{
-		InetAddress hostAddr;
+	public int sendRequest(){
 		try {
-			hostAddr = InetAddress.getByName(hostname);
-		} catch (UnknownHostException ex) {
-			System.err.println ("invalid host address");
-			return null;
+			_transport.send(ByteBuffer.wrap(_packetOut, 0, BUFFER_SIZE), _networkAddress);
+		} catch (IOException ex) {
+			System.err.println("unable to send message to server");
+			return -1;
 		}
-		return new DatagramPacket (packet, BUFFER_SIZE, hostAddr, port);
+		return 0;
 	}
 
 	/**
@@ -107,14 +555,18 @@ public class UDPSender {
 	 * @return - the server's response or NULL if an error occured
 	 */
 	public UDPPacket receiveResponse() throws IOException {
-		byte[] buffer = new byte[BUFFER_SIZE];
-		DatagramPacket newDatagramPacket = new DatagramPacket(buffer, BUFFER_SIZE);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
 		UDPPacket packet = null;
 		try {
-			_socket.receive(newDatagramPacket);
+			SocketAddress from = _transport.receive(buffer, TIMEOUT);
+			if (from == null)   // Socket timeout,
+			{
+				System.err.println("Unable to receive message from server, it's timeout.");
+				return null;
+			}
 			//Convert the packet to string.
 			Charset charset = StandardCharsets.US_ASCII;
-			String request = charset.decode(ByteBuffer.wrap(newDatagramPacket.getData())).toString();
+			String request = charset.decode(ByteBuffer.wrap(buffer.array())).toString();
 			String srcIP = request.substring(0, 15);
 			String srcPort = request.substring(16, 21);
 			String destIP = request.substring(22, 37);
@@ -126,11 +578,7 @@ public class UDPSender {
 			packet = new UDPPacket(destPort, destIP, srcPort, srcIP, Integer.parseInt(_seqNum));
 			packet.makePacket(payload);
 
-		} catch (SocketTimeoutException e)   // Socket timeout,
-		{
-			System.err.println("Unable to receive message from server, it's timeout.");
-			return null;
-		}catch (IOException ex) {
+		} catch (IOException ex) {
 			System.err.println("Unable to receive message from server: " + ex);
 			return null;
 		}
@@ -279,7 +727,14 @@ public class UDPSender {
 	 * @return - 0, if no error; otherwise, a negative number indicating the error
 	 */
 	public int closeSocket() {
-		_socket.close();
+		_running = false;
+		for (Transport transport : _stripeTransports) {
+			transport.close();
+		}
+		if (_session != null) {
+			LockSupport.unpark(_ioThread);
+			_session.abort(new IOException("sender closed"));
+		}
 
 		return 0;
 	}
@@ -293,10 +748,33 @@ public class UDPSender {
 		String networkHost;
 		String networkPort;
 
+		int stripes = 1;
+		String[] stripeNetworks = new String[0];
+
 		UDPSender sender;
-		if (args.length != 5) {
+		if (args.length > 0 && args[0].equals("load")) {
+			// many simulated senders instead of one console
+			LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		// Path probing may be asked for anywhere after the required arguments
+		int probeMss = 0;
+		List<String> positional = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals("probe")) {
+				probeMss = PROBE_MSS;
+			} else if (arg.startsWith("probe=") && arg.substring(6).matches("\\d+")) {
+				probeMss = Integer.parseInt(arg.substring(6));
+			} else {
+				positional.add(arg);
+			}
+		}
+		args = positional.toArray(new String[0]);
+
+		if (args.length < 5) {
 			System.err.println("Usage: UDPSender <sender port number> <serverName> <receiver port number>" +
-					"<networkName> <network port number\n");
+					"<networkName> <network port number> [stripes [networkName:port ...]] [probe[=<max mss>]]\n" +
+					"       UDPSender load <LoadGenerator arguments>\n");
 			return;
 		}
 		try {
@@ -305,37 +783,62 @@ public class UDPSender {
 			rcvPort = args[2];
 			networkHost = args[3];
 			networkPort = args[4];
-		} catch (NullPointerException xcp) {
+			if (args.length > 5) {
+				stripes = Integer.parseInt(args[5]);
+				stripeNetworks = Arrays.copyOfRange(args, 6, args.length);
+			}
+		} catch (NumberFormatException xcp) {
 			System.err.println("Usage: UDPSender <sender port number> <serverName> <receiver port number>" +
-					"<networkName> <network port number\n");
+					"<networkName> <network port number> [stripes [networkName:port ...]] [probe[=<max mss>]]\n" +
+					"       UDPSender load <LoadGenerator arguments>\n");
 			return;
 		}
 
 		// construct sender and sender socket
 		sender = new UDPSender(srcPort, rcvHost, rcvPort, networkHost, networkPort);
-		if (sender.createSocket() < 0) {
+		sender.setStripes(stripes, stripeNetworks);
+		sender.setPathProbing(probeMss, REPROBE_MILLIS);
+		if (sender.createSocket() < 0 || sender.start() < 0) {
 			return;
 		}
 
 		System.out.println("***************************** RDT SENDER *********************************");
+		System.out.println("Sending the packets to: " + rcvHost + " " + rcvPort);
+		// read input from user, without waiting for the previous request to be acknowledged.
+		CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
 		System.out.print("Enter a request: ");
 		String request = System.console().readLine();
-		//String request = "Hello world!";
-		System.out.println("Sending the packet to: " + rcvHost + " " + rcvPort);
-		sender.SetRequest(request + ".");
-		// read input from user.
-		while(!Objects.equals(request, "done"))
+		while(request != null && !Objects.equals(request, "done"))
 		{
-			sender.StartRequest();
-			System.out.print("Enter a request: ");
-			request = System.console().readLine();
-			sender.SetRequest(request + ".");
-			if("done".equals(request)) {
-				if (sender.closeSocket() != 0) {
-					System.out.println("There is an error when close socket");
+			String sent = request;
+			try {
+				CompletableFuture<Void> done;
+				if (request.startsWith("file ")) {
+					// resumable file transfer: only the chunks the receiver is missing are sent
+					Path file = Paths.get(request.substring(5).trim());
+					done = sender.sendFile(file, transferId(file));
+				} else {
+					done = sender.send(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
 				}
-				return;
+				done = done
+						.whenComplete((ok, ex) -> System.err.println(ex == null
+								? "Packet completely sent: " + sent
+								: "Packet not sent: " + sent + " (" + ex.getMessage() + ")"));
+				pending = CompletableFuture.allOf(pending, done.exceptionally(ex -> null));
+			} catch (IOException ex) {
+				System.err.println("unable to send " + sent + ": " + ex.getMessage());
+			} catch (InterruptedException ex) {
+				break;
 			}
+			System.out.print("Enter a request: ");
+			request = System.console().readLine();
+		}
+
+		// wait for every request before closing
+		pending.join();
+		System.out.println(sender.getStats());
+		if (sender.closeSocket() != 0) {
+			System.out.println("There is an error when close socket");
 		}
 	}
 }